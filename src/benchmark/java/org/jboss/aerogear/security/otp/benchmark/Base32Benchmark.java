@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Base32Decoder;
+import org.jboss.aerogear.security.otp.api.Base32Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base32Benchmark {
+
+    private String encoded;
+    private byte[] decoded;
+    private byte[] out;
+
+    // Bulk export/import of 10k 20 byte secrets, one per line
+    private static final int RECORDS = 10000;
+    private static final int RECORD_LENGTH = 20;
+    private byte[] secrets;
+    private byte[] lines;
+    private Base32Encoder encoder;
+    private Base32Decoder decoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        encoded = "B2374TNIQ3HKC446";
+        decoded = Base32.decode(encoded);
+        out = new byte[decoded.length];
+
+        secrets = new byte[RECORDS * RECORD_LENGTH];
+        new Random(42).nextBytes(secrets);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] secret = new byte[RECORD_LENGTH];
+            System.arraycopy(secrets, i * RECORD_LENGTH, secret, 0, RECORD_LENGTH);
+            text.append(Base32.encode(secret)).append('\n');
+        }
+        lines = text.toString().getBytes("US-ASCII");
+        encoder = Base32.newEncoder();
+        decoder = Base32.newDecoder();
+    }
+
+    @Benchmark
+    public byte[] decode() throws Exception {
+        return Base32.decode(encoded);
+    }
+
+    @Benchmark
+    public int decodeInto() throws Exception {
+        return Base32.decode(encoded, out, 0);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base32.encode(decoded);
+    }
+
+    @Benchmark
+    public char[] encodeToChars() {
+        return Base32.encodeToChars(decoded);
+    }
+
+    @Benchmark
+    public long exportRecords() throws Exception {
+        Sink sink = new Sink();
+        encoder.encode(Channels.newChannel(new ByteArrayInputStream(secrets)), sink, RECORD_LENGTH);
+        return sink.bytes;
+    }
+
+    @Benchmark
+    public long exportRecordsAsStrings() throws Exception {
+        Sink sink = new Sink();
+        byte[] secret = new byte[RECORD_LENGTH];
+        for (int i = 0; i < RECORDS; i++) {
+            System.arraycopy(secrets, i * RECORD_LENGTH, secret, 0, RECORD_LENGTH);
+            sink.write(ByteBuffer.wrap((Base32.encode(secret) + '\n').getBytes("US-ASCII")));
+        }
+        return sink.bytes;
+    }
+
+    @Benchmark
+    public long importRecords() throws Exception {
+        Sink sink = new Sink();
+        decoder.decode(Channels.newChannel(new ByteArrayInputStream(lines)), sink, RECORD_LENGTH);
+        return sink.bytes;
+    }
+
+    /**
+     * Discards and counts the output, so the codec rather than the I/O is measured
+     */
+    private static class Sink implements WritableByteChannel {
+
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            bytes += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Benchmark
+    public String random() {
+        return Base32.random();
+    }
+}
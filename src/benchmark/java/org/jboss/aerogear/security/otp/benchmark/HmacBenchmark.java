@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.Hmac;
+import org.jboss.aerogear.security.otp.api.KeyState;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacBenchmark {
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    private Hash hash;
+
+    private String encoded;
+    private byte[] secret;
+    private byte[] state;
+    private KeyedHmac keyed;
+    private KeyedHmac keyedJce;
+    private byte[] out;
+    private long interval;
+
+    @Setup
+    public void setUp() throws Exception {
+        encoded = "B2374TNIQ3HKC446";
+        secret = Base32.decode(encoded);
+        keyed = Hmac.keyed(hash, secret);
+        state = KeyState.encode(keyed);
+        keyedJce = Hmac.keyedJce(hash, secret);
+        out = new byte[64];
+        interval = System.currentTimeMillis() / 30000;
+    }
+
+    @Benchmark
+    public byte[] digest() throws Exception {
+        return new Hmac(hash, secret, interval).digest();
+    }
+
+    @Benchmark
+    public byte[] keyedDigest() {
+        return keyed.digest(interval);
+    }
+
+    @Benchmark
+    public int keyedDigestInto() {
+        return keyed.digest(interval, out, 0);
+    }
+
+    @Benchmark
+    public int keyedJceDigestInto() {
+        return keyedJce.digest(interval, out, 0);
+    }
+
+    @Benchmark
+    public KeyedHmac keying() throws Exception {
+        return Hmac.keyed(hash, secret);
+    }
+
+    /**
+     * Cold verification setup from a stored Base32 secret
+     */
+    @Benchmark
+    public KeyedHmac keyingBase32() throws Exception {
+        return Hmac.keyed(hash, Base32.decode(encoded));
+    }
+
+    /**
+     * Cold verification setup from a stored key state
+     */
+    @Benchmark
+    public KeyedHmac keyingFromState() {
+        return KeyState.decode(state);
+    }
+}
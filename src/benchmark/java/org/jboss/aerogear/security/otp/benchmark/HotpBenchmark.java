@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.Hotp;
+import org.jboss.aerogear.security.otp.HotpCounterStore;
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.Hmac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotpBenchmark {
+
+    @Param({"100"})
+    private int lookAhead;
+
+    private String secret;
+    private byte[] key;
+    private Hotp hotp;
+
+    // Login spike: many users advancing their counters concurrently
+    private static final int USERS = 1 << 16;
+    private HotpCounterStore store;
+    private LockedCounter[] locked;
+
+    @Setup
+    public void setUp() throws Exception {
+        secret = Base32.random();
+        key = Base32.decode(secret);
+        hotp = new Hotp(secret);
+        store = new HotpCounterStore(USERS);
+        locked = new LockedCounter[USERS];
+        for (int i = 0; i < USERS; i++) {
+            locked[i] = new LockedCounter();
+        }
+    }
+
+    /**
+     * Worst case resync, the code matches none of the candidates
+     */
+    @Benchmark
+    public long resync() {
+        return hotp.verify(123456, 1000, lookAhead);
+    }
+
+    /**
+     * The same search with a full Hmac.digest() per candidate
+     */
+    @Benchmark
+    public long resyncHmacDigest() throws Exception {
+        for (long counter = 1000; counter <= 1000 + lookAhead; counter++) {
+            byte[] hash = new Hmac(Hash.SHA1, key, counter).digest();
+            int offset = hash[hash.length - 1] & 0xf;
+            int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
+                    | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
+            if (binary % 1000000 == 123456) {
+                return counter;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public boolean advanceCounterStore() {
+        int slot = ThreadLocalRandom.current().nextInt(USERS);
+        return store.advance(slot, store.get(slot));
+    }
+
+    @Benchmark
+    public boolean advanceLocked() {
+        return locked[ThreadLocalRandom.current().nextInt(USERS)].advance();
+    }
+
+    /**
+     * Per-user object guarded by its monitor
+     */
+    private static class LockedCounter {
+
+        private long counter;
+
+        synchronized boolean advance() {
+            long matched = counter;
+            if (counter > matched) {
+                return false;
+            }
+            counter = matched + 1;
+            return true;
+        }
+    }
+}
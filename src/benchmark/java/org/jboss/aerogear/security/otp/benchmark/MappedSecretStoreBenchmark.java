@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.MappedSecretStore;
+import org.jboss.aerogear.security.otp.Totp;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Secrets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedSecretStoreBenchmark {
+
+    @Param({"100000"})
+    private int users;
+
+    private File file;
+    private MappedSecretStore store;
+    private String[] secrets;
+    private Clock clock;
+
+    @Setup
+    public void setUp() throws Exception {
+        clock = Clock.getDefault();
+        Secrets generated = Secrets.generate(users);
+        secrets = new String[users];
+        file = File.createTempFile("secrets", ".db");
+        file.delete();
+        store = MappedSecretStore.open(file, users, Secrets.DEFAULT_LENGTH, clock);
+        for (int i = 0; i < users; i++) {
+            secrets[i] = generated.getBase32(i);
+            store.put(i, generated.getSecret(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean verifyStore() {
+        return store.verify(ThreadLocalRandom.current().nextInt(users), 123456);
+    }
+
+    @Benchmark
+    public boolean verifyTotp() {
+        return new Totp(secrets[ThreadLocalRandom.current().nextInt(users)], clock).verify(123456);
+    }
+}
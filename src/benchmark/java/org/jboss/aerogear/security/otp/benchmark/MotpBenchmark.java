@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.Motp;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotpBenchmark {
+
+    private static final String SECRET = "B2374TNIQ3HKC446";
+    private static final String PIN = "1234";
+
+    @Param({"3", "18"})
+    private int delayWindow;
+
+    private Motp motp;
+    private String valid;
+    private String invalid;
+
+    @Setup
+    public void setUp() throws Exception {
+        motp = new Motp(PIN, SECRET, Clock.getDefault());
+        valid = motp.now();
+        invalid = valid.equals("000000") ? "000001" : "000000";
+    }
+
+    @Benchmark
+    public String now() throws Exception {
+        return motp.now();
+    }
+
+    @Benchmark
+    public boolean verifyValid() {
+        return motp.verify(valid, delayWindow);
+    }
+
+    @Benchmark
+    public boolean verifyInvalid() {
+        return motp.verify(invalid, delayWindow);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.MappedReplayStore;
+import org.jboss.aerogear.security.otp.StripedReplayStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records fresh codes, a new time step every 100000 codes as on a busy login service
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayStoreBenchmark {
+
+    private static final int CODES_PER_STEP = 100000;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private File file;
+    private MappedReplayStore mapped;
+    private StripedReplayStore striped;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = File.createTempFile("replay", ".db");
+        file.delete();
+        mapped = MappedReplayStore.open(file, 8 * CODES_PER_STEP);
+        striped = new StripedReplayStore();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mapped.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean markUsedMapped() {
+        long n = sequence.getAndIncrement();
+        long step = n / CODES_PER_STEP;
+        return mapped.markUsed(n, step, step - 1);
+    }
+
+    @Benchmark
+    public boolean markUsedStriped() {
+        long n = sequence.getAndIncrement();
+        long step = n / CODES_PER_STEP;
+        return striped.markUsed(n, step, step - 1);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.Totp;
+import org.jboss.aerogear.security.otp.TotpBatch;
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TotpBatchBenchmark {
+
+    @Param({"1000", "10000"})
+    private int size;
+
+    private Clock clock;
+    private String[] secrets;
+    private int[] codes;
+
+    @Setup
+    public void setUp() {
+        clock = Clock.getDefault();
+        secrets = new String[size];
+        codes = new int[size];
+        for (int i = 0; i < size; i++) {
+            secrets[i] = Base32.random();
+        }
+    }
+
+    @Benchmark
+    public BitSet verifyAll() {
+        return TotpBatch.verifyAll(secrets, codes, clock);
+    }
+
+    @Benchmark
+    public BitSet verifySerial() {
+        BitSet valid = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (new Totp(secrets[i], clock).verify(codes[i])) {
+                valid.set(i);
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public String[] now() {
+        return TotpBatch.now(secrets, clock);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.benchmark;
+
+import org.jboss.aerogear.security.otp.AttemptLimiter;
+import org.jboss.aerogear.security.otp.DriftTracker;
+import org.jboss.aerogear.security.otp.Totp;
+import org.jboss.aerogear.security.otp.TotpEngine;
+import org.jboss.aerogear.security.otp.VerificationMetrics;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TotpBenchmark {
+
+    private static final String SECRET = "B2374TNIQ3HKC446";
+
+    private Totp totp;
+    private Totp measured;
+    private Totp tracked;
+    private Totp throttled;
+    private TotpEngine engine;
+    private KeyedHmac key;
+    private String valid;
+    private String invalid;
+    private int validCode;
+    private char[] validChars;
+
+    @Setup
+    public void setUp() {
+        totp = new Totp(SECRET, Clock.getDefault());
+        measured = totp.withListener(new VerificationMetrics());
+        tracked = totp.withDriftTracker(new DriftTracker(1, 3, 3, 1), 0);
+        throttled = totp.withAttemptLimiter(new AttemptLimiter(1024, 5), 42);
+        engine = new TotpEngine();
+        key = engine.key(SECRET);
+        valid = totp.now();
+        invalid = valid.equals("000000") ? "000001" : "000000";
+        validCode = Integer.parseInt(valid);
+        validChars = valid.toCharArray();
+    }
+
+    @Benchmark
+    public String now() {
+        return totp.now();
+    }
+
+    @Benchmark
+    public boolean verifyValid() {
+        return totp.verify(valid);
+    }
+
+    @Benchmark
+    public boolean verifyValidInt() {
+        return totp.verify(validCode);
+    }
+
+    @Benchmark
+    public boolean verifyValidChars() {
+        return totp.verify(validChars, 0, validChars.length);
+    }
+
+    /**
+     * Worst case, the whole delay window is computed.
+     */
+    @Benchmark
+    public boolean verifyInvalid() {
+        return totp.verify(invalid);
+    }
+
+    /**
+     * Same as {@link #verifyInvalid()}, reporting to striped counters
+     */
+    @Benchmark
+    public boolean verifyInvalidWithMetrics() {
+        return measured.verify(invalid);
+    }
+
+    /**
+     * Same as {@link #verifyInvalid()} once the account used up its attempts, as during a brute force wave
+     */
+    @Benchmark
+    public boolean verifyInvalidThrottled() {
+        return throttled.verify(invalid);
+    }
+
+    /**
+     * Wide bounds, the recorded offset of the user is searched first
+     */
+    @Benchmark
+    public boolean verifyValidWithDriftTracker() {
+        return tracked.verify(valid);
+    }
+
+    /**
+     * Same as {@link #verifyNewInstance()} with a key handle kept per user and one engine for all
+     */
+    @Benchmark
+    public boolean verifyEngine() {
+        return engine.verify(key, invalid);
+    }
+
+    /**
+     * One instance per request, as most callers do today.
+     */
+    @Benchmark
+    public boolean verifyNewInstance() {
+        return new Totp(SECRET, Clock.getDefault()).verify(invalid);
+    }
+}
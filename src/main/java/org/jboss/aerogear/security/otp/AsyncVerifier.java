@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs verifications off the calling thread, for callers that must not block such as event loops.
+ * <p/>
+ * The whole verification runs on the executor: the lookup of the user's {@link Totp}, which may
+ * hit a remote store, the HMAC window and the replay check of the returned instance. The default
+ * executor starts a virtual thread per verification when the JVM supports them, and falls back
+ * to a cached pool of daemon threads otherwise.
+ * <p/>
+ * Cancelling the returned future, or letting it time out, skips the verification if it didn't
+ * start yet. Otherwise it interrupts the thread: a lookup answering the interrupt fails, and a
+ * verification whose lookup returns after the cancellation stops before touching the replay store.
+ * {@link Totp#verify(String)} itself doesn't check for interrupts, once running it completes and
+ * may record the code as used, so a caller retrying the same code after a timeout can see it
+ * rejected as a replay.
+ */
+public class AsyncVerifier {
+
+    /**
+     * Finds the verifier of a user, configured with its replay store, listener...
+     */
+    public interface SecretLookup {
+
+        /**
+         * @param accountId Identifier of the user
+         * @return Verifier of the user, null if the user is unknown
+         * @throws Exception If the lookup fails, the verification completes exceptionally with it
+         */
+        Totp lookup(long accountId) throws Exception;
+    }
+
+    private final Executor executor;
+    private final SecretLookup lookup;
+    private final long timeoutNanos;
+
+    /**
+     * Verifier on virtual threads where available
+     */
+    public AsyncVerifier() {
+        this(DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * @param executor Executor running the verifications
+     */
+    public AsyncVerifier(Executor executor) {
+        this(executor, null, 0);
+    }
+
+    private AsyncVerifier(Executor executor, SecretLookup lookup, long timeoutNanos) {
+        this.executor = executor;
+        this.lookup = lookup;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Returns a copy of this instance that resolves users with the lookup, see {@link #verifyAsync(long, String)}
+     *
+     * @param lookup Lookup of the users' verifiers
+     * @return AsyncVerifier for user ids
+     */
+    public AsyncVerifier withLookup(SecretLookup lookup) {
+        return new AsyncVerifier(executor, lookup, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of this instance whose verifications complete with a {@link TimeoutException}
+     * if they take longer than the timeout, counted from the submission
+     *
+     * @param timeout Maximum duration, 0 for none
+     * @param unit    Unit of the timeout
+     * @return AsyncVerifier with a timeout
+     */
+    public AsyncVerifier withTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        return new AsyncVerifier(executor, lookup, unit.toNanos(timeout));
+    }
+
+    /**
+     * Looks the user up and verifies the code, unknown users being rejected
+     *
+     * @param accountId Identifier of the user
+     * @param otp       Timeout code
+     * @return Future completed with the result of the verification
+     */
+    public CompletableFuture<Boolean> verifyAsync(final long accountId, final String otp) {
+        if (lookup == null) {
+            throw new IllegalStateException("No lookup configured");
+        }
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                Totp totp = lookup.lookup(accountId);
+                // Cancelled or timed out during the lookup, the code must not be burned
+                return totp != null && !Thread.currentThread().isInterrupted() && totp.verify(otp);
+            }
+        });
+    }
+
+    /**
+     * @param totp Verifier of the user
+     * @param otp  Timeout code
+     * @return Future completed with the result of {@link Totp#verify(String)}
+     */
+    public CompletableFuture<Boolean> verifyAsync(final Totp totp, final String otp) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return totp.verify(otp);
+            }
+        });
+    }
+
+    /**
+     * @param motp Verifier of the user
+     * @param otp  Timeout code
+     * @return Future completed with the result of {@link Motp#verify(String)}
+     */
+    public CompletableFuture<Boolean> verifyAsync(final Motp motp, final String otp) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return motp.verify(otp);
+            }
+        });
+    }
+
+    private CompletableFuture<Boolean> submit(final Callable<Boolean> verification) {
+        final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.complete(verification.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, null);
+        result.whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean valid, Throwable e) {
+                if (e != null) {
+                    task.cancel(true);
+                }
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        if (timeoutNanos > 0 && !result.isDone()) {
+            final ScheduledFuture<?> timer = Timer.SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    result.completeExceptionally(new TimeoutException("Verification timed out"));
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                @Override
+                public void accept(Boolean valid, Throwable e) {
+                    timer.cancel(false);
+                }
+            });
+        }
+        return result;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Created on first use, virtual threads being looked up reflectively to keep running on older JVMs
+     */
+    private static class DefaultExecutor {
+
+        static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (Exception e) {
+                return Executors.newCachedThreadPool(daemonThreads("otp-verifier"));
+            }
+        }
+    }
+
+    private static class Timer {
+
+        static final ScheduledExecutorService SCHEDULER = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("otp-verifier-timeout"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the verification attempts per account and time bucket, checked before any code is computed,
+ * see {@link Totp#withAttemptLimiter(AttemptLimiter, long)} and {@link Motp#withAttemptLimiter(AttemptLimiter, long)}.
+ * <p/>
+ * Buckets span a number of verifier time steps, TOTP intervals or MOTP 10 seconds epochs, so they
+ * line up with the {@link org.jboss.aerogear.security.otp.api.Clock}. Each account hashes to two
+ * cells of a fixed table, each cell packing the bucket and the attempts counted in it into one long
+ * updated by compare-and-set. The cells form a count-min sketch: the attempts of an account are
+ * the smaller of its two counts, and an attempt is allowed while that one is under the limit.
+ * Accounts sharing a cell with an attacked one only lose attempts when their other cell is
+ * exhausted too. Counts saturate at the limit. Memory stays at one long per cell however many
+ * accounts are attacked.
+ * <p/>
+ * Over-limit attempts only read the table, so a flood of guesses doesn't contend on writes.
+ */
+public class AttemptLimiter {
+
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long BUCKET_MASK = -1L >>> COUNT_BITS;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+    private final int maxAttempts;
+    private final int bucketSteps;
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Limiter with buckets of one time step
+     *
+     * @param capacity    Number of cells, rounded up to a power of two, a few per concurrently active account
+     * @param maxAttempts Attempts allowed per account and bucket
+     */
+    public AttemptLimiter(int capacity, int maxAttempts) {
+        this(capacity, maxAttempts, 1);
+    }
+
+    /**
+     * @param capacity    Number of cells, rounded up to a power of two, a few per concurrently active account
+     * @param maxAttempts Attempts allowed per account and bucket
+     * @param bucketSteps Time steps per bucket
+     */
+    public AttemptLimiter(int capacity, int maxAttempts, int bucketSteps) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 30));
+        }
+        if (maxAttempts <= 0 || maxAttempts >= COUNT_MASK) {
+            throw new IllegalArgumentException("Max attempts must be between 1 and " + (COUNT_MASK - 1));
+        }
+        if (bucketSteps <= 0) {
+            throw new IllegalArgumentException("Bucket steps must be positive");
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.cells = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.maxAttempts = maxAttempts;
+        this.bucketSteps = bucketSteps;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getBucketSteps() {
+        return bucketSteps;
+    }
+
+    /**
+     * Counts an attempt of the account
+     *
+     * @param accountId Identifier of the account, e.g. the user id
+     * @param step      Current time step of the verifier
+     * @return True if the attempt is allowed, false if the account is over the limit in this bucket
+     */
+    public boolean tryAcquire(long accountId, long step) {
+        long bucket = bucket(step);
+        int first = firstCell(accountId);
+        int second = secondCell(accountId);
+        if (Math.min(count(first, bucket), count(second, bucket)) >= maxAttempts) {
+            throttled.increment();
+            return false;
+        }
+        // Both cells count the attempt, a saturated cell simply stays at the limit. Racing attempts
+        // saturating both cells in the meantime are rejected
+        boolean counted = increment(first, bucket);
+        if (second != first) {
+            counted |= increment(second, bucket);
+        }
+        if (!counted) {
+            throttled.increment();
+        }
+        return counted;
+    }
+
+    /**
+     * @param accountId Identifier of the account
+     * @param step      Current time step of the verifier
+     * @return Attempts counted for the account in the bucket of the step, possibly including
+     * attempts of accounts sharing its cells
+     */
+    public int getAttempts(long accountId, long step) {
+        long bucket = bucket(step);
+        return Math.min(count(firstCell(accountId), bucket), count(secondCell(accountId), bucket));
+    }
+
+    /**
+     * @param accountId Identifier of the account
+     * @param step      Current time step of the verifier
+     * @return True if the next attempt of the account would be rejected
+     */
+    public boolean isThrottled(long accountId, long step) {
+        return getAttempts(accountId, step) >= maxAttempts;
+    }
+
+    /**
+     * @param step Current time step of the verifier
+     * @return Number of cells at the limit in the bucket of the step, an estimate of the accounts under attack
+     */
+    public int getThrottledCells(long step) {
+        long bucket = bucket(step);
+        int throttledCells = 0;
+        for (int i = 0; i < cells.length(); i++) {
+            if (count(i, bucket) >= maxAttempts) {
+                throttledCells++;
+            }
+        }
+        return throttledCells;
+    }
+
+    /**
+     * @return Number of attempts rejected since the creation of the limiter
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    int firstCell(long accountId) {
+        return (int) hash(accountId) & mask;
+    }
+
+    int secondCell(long accountId) {
+        return (int) (hash(accountId) >>> 32) & mask;
+    }
+
+    private long bucket(long step) {
+        return (step / bucketSteps) & BUCKET_MASK;
+    }
+
+    private int count(int index, long bucket) {
+        long cell = cells.get(index);
+        return cell >>> COUNT_BITS >= bucket ? (int) (cell & COUNT_MASK) : 0;
+    }
+
+    /**
+     * @return False if the cell is already at the limit, leaving it unchanged
+     */
+    private boolean increment(int index, long bucket) {
+        while (true) {
+            long cell = cells.get(index);
+            // A thread reading the clock just before the bucket rolled over counts in the newer one
+            long current = Math.max(cell >>> COUNT_BITS, bucket);
+            long count = cell >>> COUNT_BITS == current ? cell & COUNT_MASK : 0;
+            if (count >= maxAttempts) {
+                return false;
+            }
+            if (cells.compareAndSet(index, cell, current << COUNT_BITS | (count + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private static long hash(long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+}
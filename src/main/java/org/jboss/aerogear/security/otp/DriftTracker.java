@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.Arrays;
+
+/**
+ * Remembers how far off the clock of each user's device is, indexed by user slot.
+ * <p/>
+ * The offset of the last match is kept in one byte per user, in time steps, positive when the
+ * device is behind. Verifiers try that offset first and then alternate around it, up to the radius,
+ * within the configured bounds. On a miss there, the rest of the bounds is searched starting at 0,
+ * so a device whose clock was corrected is still accepted. Users without a recorded offset are
+ * searched across the whole bounds, starting at 0.
+ * <p/>
+ * Offsets are hints: concurrent verifications of the same user may overwrite each other's offset,
+ * which only affects the search order of the next verification.
+ */
+public class DriftTracker {
+
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+    private static final int MAX_BOUND = 100;
+    private static final int SEARCHED = Integer.MAX_VALUE;
+
+    private final byte[] drifts;
+    private final int maxPast;
+    private final int maxFuture;
+    private final int radius;
+
+    /**
+     * Tracker accepting codes up to one time step old, as {@link Totp} does, and searching one step
+     * around the recorded offset
+     *
+     * @param capacity Number of users
+     */
+    public DriftTracker(int capacity) {
+        this(capacity, 1, 0, 1);
+    }
+
+    /**
+     * @param capacity  Number of users
+     * @param maxPast   Time steps a code may be late, the device being behind
+     * @param maxFuture Time steps a code may be early, the device being ahead
+     * @param radius    Time steps searched around a recorded offset
+     */
+    public DriftTracker(int capacity, int maxPast, int maxFuture, int radius) {
+        if (maxPast < 0 || maxPast > MAX_BOUND || maxFuture < 0 || maxFuture > MAX_BOUND) {
+            throw new IllegalArgumentException("Bounds must be between 0 and " + MAX_BOUND);
+        }
+        if (radius < 0) {
+            throw new IllegalArgumentException("Radius must not be negative");
+        }
+        this.drifts = new byte[capacity];
+        Arrays.fill(drifts, UNKNOWN);
+        this.maxPast = maxPast;
+        this.maxFuture = maxFuture;
+        this.radius = radius;
+    }
+
+    public int getMaxPast() {
+        return maxPast;
+    }
+
+    public int getMaxFuture() {
+        return maxFuture;
+    }
+
+    /**
+     * @param slot User slot
+     * @return True if a match of the user was recorded
+     */
+    public boolean hasDrift(int slot) {
+        return drifts[slot] != UNKNOWN;
+    }
+
+    /**
+     * @param slot User slot
+     * @return Offset of the last match of the user, 0 if none was recorded
+     */
+    public int getDrift(int slot) {
+        int drift = drifts[slot];
+        return drift == UNKNOWN ? 0 : drift;
+    }
+
+    /**
+     * @param slot   User slot
+     * @param offset Offset of a match
+     */
+    public void record(int slot, int offset) {
+        if (!inBounds(offset)) {
+            throw new IllegalArgumentException("Offset out of bounds: " + offset);
+        }
+        if (drifts[slot] != offset) {
+            drifts[slot] = (byte) offset;
+        }
+    }
+
+    /**
+     * Forgets the offset of a user, e.g. after a device change
+     *
+     * @param slot User slot
+     */
+    public void reset(int slot) {
+        drifts[slot] = UNKNOWN;
+    }
+
+    /**
+     * @return Number of offsets to go through with {@link #offset(int, int)}, some may be out of bounds
+     */
+    int searchLength(int slot) {
+        int bounds = 2 * Math.max(maxPast, maxFuture) + 1;
+        return drifts[slot] == UNKNOWN ? bounds : 2 * radius + 1 + bounds;
+    }
+
+    /**
+     * @param center Offset searched first, see {@link #getDrift(int)}
+     * @param k      Search step
+     * @return The k-th offset to try: center, center + 1, center - 1, center + 2... up to the radius,
+     * then 0, 1, -1, 2... skipping the offsets already tried, which come out of bounds
+     */
+    int offset(int center, int k) {
+        int window = 2 * radius + 1;
+        if (k < window || center == 0) {
+            return alternate(center, k);
+        }
+        int candidate = alternate(0, k - window);
+        return Math.abs(candidate - center) <= radius ? SEARCHED : candidate;
+    }
+
+    private static int alternate(int center, int k) {
+        return (k & 1) == 0 ? center - (k >> 1) : center + ((k + 1) >> 1);
+    }
+
+    boolean inBounds(int offset) {
+        return offset <= maxPast && offset >= -maxFuture;
+    }
+}
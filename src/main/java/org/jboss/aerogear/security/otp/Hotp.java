@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.Hmac;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Counter based OTP, RFC 4226.
+ * <p/>
+ * The counter is kept by the caller: on success {@link #verify(String, long, int)} returns the
+ * matched counter, the next expected one being the matched counter + 1.
+ */
+public class Hotp {
+
+    private final String secret;
+    private final Hash hash;
+    private final Digits digits;
+    private final KeyedHmac hmac;
+
+    /**
+     * Initialize an OTP instance with the shared secret generated on Registration process
+     *
+     * @param secret Shared secret
+     */
+    public Hotp(String secret) {
+        this(secret, Hash.SHA1);
+    }
+
+    /**
+     * Initialize an OTP instance with the shared secret generated on Registration process
+     *
+     * @param secret Shared secret
+     * @param hash   HMAC algorithm of the token
+     */
+    public Hotp(String secret, Hash hash) {
+        this(secret, hash, Digits.SIX);
+    }
+
+    /**
+     * Initialize an OTP instance with the shared secret generated on Registration process
+     *
+     * @param secret Shared secret
+     * @param hash   HMAC algorithm of the token
+     * @param digits Length of the codes
+     */
+    public Hotp(String secret, Hash hash, Digits digits) {
+        this.secret = secret;
+        this.hash = hash;
+        this.digits = digits;
+        try {
+            //Base32 encoding is just a requirement for google authenticator. We can remove it on the next releases.
+            this.hmac = Hmac.keyed(hash, Base32.decode(secret));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } catch (Base32.DecodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prover - To be used only on the client side
+     * Retrieves the encoded URI to generated the QRCode required by Google Authenticator
+     *
+     * @param name    Account name
+     * @param counter Initial counter of the token
+     * @return Encoded URI
+     */
+    public String uri(String name, long counter) {
+        try {
+            String uri = String.format("otpauth://hotp/%s?secret=%s&counter=%d", URLEncoder.encode(name, "UTF-8"),
+                    secret, counter);
+            if (hash != Hash.SHA1) {
+                uri += "&algorithm=" + hash.name();
+            }
+            if (digits != Digits.SIX) {
+                uri += "&digits=" + digits.getLength();
+            }
+            return uri;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retrieves the OTP of a counter
+     *
+     * @param counter Counter
+     * @return OTP
+     */
+    public String generate(long counter) {
+        return digits.format(TotpEngine.generate(hmac, counter, digits));
+    }
+
+    /**
+     * Verifier - To be used only on the server side
+     * <p/>
+     * Verify a code against the expected counter and the following ones, tokens run ahead
+     * of the server whenever a code is generated but not used.
+     *
+     * @param otp       Code
+     * @param counter   Next expected counter
+     * @param lookAhead Number of counters after the expected one also accepted
+     * @return The matched counter, or -1 if the code is not valid
+     */
+    public long verify(String otp, long counter, int lookAhead) {
+        return verify(digits.parse(otp), counter, lookAhead);
+    }
+
+    /**
+     * Verify an already parsed code, see {@link #verify(String, long, int)}
+     *
+     * @param code      Code
+     * @param counter   Next expected counter
+     * @param lookAhead Number of counters after the expected one also accepted
+     * @return The matched counter, or -1 if the code is not valid
+     */
+    public long verify(int code, long counter, int lookAhead) {
+        return verify(hmac, digits, code, counter, lookAhead);
+    }
+
+    /**
+     * Verify a code against the counter of a user and advance it, each code is accepted only once
+     *
+     * @param otp       Code
+     * @param counters  Counter store
+     * @param slot      Slot of the user in the store
+     * @param lookAhead Number of counters after the expected one also accepted
+     * @return The matched counter, or -1 if the code is not valid or was already used
+     */
+    public long verify(String otp, HotpCounterStore counters, int slot, int lookAhead) {
+        return verify(digits.parse(otp), counters, slot, lookAhead);
+    }
+
+    /**
+     * Verify an already parsed code, see {@link #verify(String, HotpCounterStore, int, int)}
+     *
+     * @param code      Code
+     * @param counters  Counter store
+     * @param slot      Slot of the user in the store
+     * @param lookAhead Number of counters after the expected one also accepted
+     * @return The matched counter, or -1 if the code is not valid or was already used
+     */
+    public long verify(int code, HotpCounterStore counters, int slot, int lookAhead) {
+        long matched = verify(hmac, digits, code, counters.get(slot), lookAhead);
+        if (matched < 0 || matched == Long.MAX_VALUE || !counters.advance(slot, matched)) {
+            return -1;
+        }
+        return matched;
+    }
+
+    /**
+     * Same as {@link #verify(int, long, int)} for an already keyed secret. The keyed state is
+     * shared by every candidate, each one costs a single HMAC of the counter.
+     */
+    static long verify(KeyedHmac hmac, Digits digits, int code, long counter, int lookAhead) {
+        if (counter < 0) {
+            throw new IllegalArgumentException("Counter must not be negative");
+        }
+        if (lookAhead < 0) {
+            throw new IllegalArgumentException("Look-ahead must not be negative");
+        }
+        if (code < 0) {
+            return -1;
+        }
+        long last = counter + Math.min(lookAhead, Long.MAX_VALUE - counter);
+        for (long candidate = counter; candidate <= last; candidate++) {
+            if (TotpEngine.generate(hmac, candidate, digits) == code) {
+                return candidate;
+            }
+            if (candidate == Long.MAX_VALUE) {
+                break;
+            }
+        }
+        return -1;
+    }
+}
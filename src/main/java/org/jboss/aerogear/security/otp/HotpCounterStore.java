@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Next expected HOTP counter of every user, indexed by user slot.
+ * <p/>
+ * Counters only move forward, through compare-and-set without locks: of two concurrent
+ * verifications of the same code exactly one advances the counter past it, see
+ * {@link Hotp#verify(int, HotpCounterStore, int, int)}.
+ */
+public class HotpCounterStore {
+
+    private final AtomicLongArray counters;
+
+    /**
+     * @param capacity Number of users, every counter starts at 0
+     */
+    public HotpCounterStore(int capacity) {
+        this.counters = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * @return Number of users
+     */
+    public int getCapacity() {
+        return counters.length();
+    }
+
+    /**
+     * @param slot User slot
+     * @return Next expected counter of the user
+     */
+    public long get(int slot) {
+        return counters.get(slot);
+    }
+
+    /**
+     * Marks a counter and every counter before it as used
+     *
+     * @param slot    User slot
+     * @param counter Counter of an accepted code
+     * @return True if the counter was not used yet, false if another verification got it first
+     */
+    public boolean advance(int slot, long counter) {
+        if (counter < 0 || counter == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid counter: " + counter);
+        }
+        for (; ; ) {
+            long current = counters.get(slot);
+            if (current > counter) {
+                return false;
+            }
+            if (counters.compareAndSet(slot, current, counter + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copies all counters, e.g. to persist them. Each counter is read atomically, the copy as a whole
+     * is not a consistent cut while verifications are running.
+     *
+     * @return Next expected counter of every user, by slot
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[counters.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counters.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restores counters, e.g. at startup. Counters only move forward, a counter
+     * already past the restored value is kept.
+     *
+     * @param snapshot Next expected counter of every user, by slot
+     */
+    public void restore(long[] snapshot) {
+        if (snapshot.length != counters.length()) {
+            throw new IllegalArgumentException("Expected " + counters.length() + " counters");
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] > 0) {
+                advance(i, snapshot[i] - 1);
+            }
+        }
+    }
+}
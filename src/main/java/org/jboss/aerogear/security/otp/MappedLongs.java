@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Atomic access to the native order longs of a direct buffer, atomic across processes when the
+ * buffer is mapped from a file.
+ * <p/>
+ * Uses a byte buffer view {@code VarHandle} on Java 9 and later, and {@code sun.misc.Unsafe} on the
+ * buffer address on Java 8. Both are looked up reflectively, so the library still builds for Java 8
+ * without referencing internal API. The handles are constants, the JIT inlines them as direct calls.
+ */
+final class MappedLongs {
+
+    /**
+     * {@code (ByteBuffer, int) long} and {@code (ByteBuffer, int, long, long) boolean} on Java 9+
+     */
+    private static final MethodHandle VIEW_GET_VOLATILE;
+    private static final MethodHandle VIEW_COMPARE_AND_SET;
+
+    /**
+     * {@code (Object, long) long} and {@code (Object, long, long, long) boolean} on Java 8, bound to
+     * the Unsafe instance, and {@code (Buffer) long} reading the buffer address
+     */
+    private static final MethodHandle UNSAFE_GET_VOLATILE;
+    private static final MethodHandle UNSAFE_COMPARE_AND_SWAP;
+    private static final MethodHandle ADDRESS;
+
+    static {
+        MethodHandle[] view = viewHandles();
+        MethodHandle[] unsafe = view == null ? unsafeHandles() : null;
+        VIEW_GET_VOLATILE = view == null ? null : view[0];
+        VIEW_COMPARE_AND_SET = view == null ? null : view[1];
+        UNSAFE_GET_VOLATILE = unsafe == null ? null : unsafe[0];
+        UNSAFE_COMPARE_AND_SWAP = unsafe == null ? null : unsafe[1];
+        ADDRESS = unsafe == null ? null : unsafe[2];
+    }
+
+    private MappedLongs() {
+    }
+
+    /**
+     * @return False if this JVM offers no atomic access to direct buffers
+     */
+    static boolean isSupported() {
+        return VIEW_GET_VOLATILE != null || UNSAFE_GET_VOLATILE != null;
+    }
+
+    /**
+     * @param buffer Direct buffer
+     * @param index  Byte offset in the buffer, a multiple of 8
+     * @return The long at that offset
+     */
+    static long getVolatile(ByteBuffer buffer, int index) {
+        try {
+            if (VIEW_GET_VOLATILE != null) {
+                return (long) VIEW_GET_VOLATILE.invokeExact(buffer, index);
+            }
+            return (long) UNSAFE_GET_VOLATILE.invokeExact((Object) null, address(buffer, index));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @param buffer   Direct buffer
+     * @param index    Byte offset in the buffer, a multiple of 8
+     * @param expected Value the long must have
+     * @param value    New value
+     * @return True if the long had the expected value and was set
+     */
+    static boolean compareAndSet(ByteBuffer buffer, int index, long expected, long value) {
+        try {
+            if (VIEW_COMPARE_AND_SET != null) {
+                return (boolean) VIEW_COMPARE_AND_SET.invokeExact(buffer, index, expected, value);
+            }
+            return (boolean) UNSAFE_COMPARE_AND_SWAP.invokeExact((Object) null, address(buffer, index),
+                    expected, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static long address(ByteBuffer buffer, int index) throws Throwable {
+        if (index < 0 || index > buffer.capacity() - 8) {
+            throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+        }
+        return (long) ADDRESS.invokeExact((Buffer) buffer) + index;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new IllegalStateException(e);
+    }
+
+    private static MethodHandle[] viewHandles() {
+        try {
+            Method view = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class);
+            Object handle = view.invoke(null, long[].class, ByteOrder.nativeOrder());
+            Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Method toMethodHandle = handle.getClass().getMethod("toMethodHandle", accessMode);
+            return new MethodHandle[]{
+                    (MethodHandle) toMethodHandle.invoke(handle, accessMode("GET_VOLATILE", accessMode)),
+                    (MethodHandle) toMethodHandle.invoke(handle, accessMode("COMPARE_AND_SET", accessMode))
+            };
+        } catch (Exception e) {
+            // Java 8
+            return null;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object accessMode(String name, Class<?> accessMode) {
+        return Enum.valueOf((Class) accessMode, name);
+    }
+
+    private static MethodHandle[] unsafeHandles() {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Field address = Buffer.class.getDeclaredField("address");
+            address.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return new MethodHandle[]{
+                    lookup.findVirtual(type, "getLongVolatile",
+                            MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe),
+                    lookup.findVirtual(type, "compareAndSwapLong",
+                            MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class))
+                            .bindTo(unsafe),
+                    lookup.unreflectGetter(address)
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
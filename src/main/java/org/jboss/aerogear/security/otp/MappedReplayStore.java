@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * {@link ReplayStore} in a memory-mapped file, shared by every JVM of the host mapping the same file.
+ * <p/>
+ * The file is a fixed table of buckets, one cache line of eight slots each. A code hashes to a
+ * bucket, and takes a slot with a compare-and-set on the mapped memory, which the processor keeps
+ * atomic across processes. A slot packs a 32 bit fingerprint of the secret id with the low 32 bits
+ * of the time step, so it is claimed in a single word. Steps are compared modulo 2^32, and slots
+ * older than the oldest accepted step are free again: the table never needs cleaning.
+ * <p/>
+ * A code is rejected, as if replayed, when its bucket is full of live codes, so the store fails
+ * closed. Size it for a few times the codes accepted within one verification window. Distinct
+ * secrets sharing a fingerprint, bucket and step would also be taken for a replay, which is about
+ * as likely as guessing a 32 bit key.
+ * <p/>
+ * Slots are in native byte order, the file is meant to be shared on one host. The header is
+ * big-endian: magic, version and number of buckets, padded to {@value #HEADER_SIZE} bytes.
+ */
+public class MappedReplayStore implements ReplayStore, Closeable {
+
+    static final int HEADER_SIZE = 64;
+    private static final int MAGIC = 0x41475250;
+    private static final int VERSION = 1;
+    private static final int SLOTS = 8;
+    private static final int BUCKET_SIZE = SLOTS * 8;
+    private static final int MAX_BUCKETS = 1 << 24;
+
+    private static final long EMPTY = 0;
+
+    private final int buckets;
+    private final int mask;
+    private final MappedByteBuffer buffer;
+
+    private MappedReplayStore(MappedByteBuffer buffer, int buckets) {
+        this.buckets = buckets;
+        this.mask = buckets - 1;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a store, creating it if the file doesn't exist or is empty. Processes opening the same
+     * file concurrently all end up on the same table.
+     *
+     * @param file     Store file
+     * @param capacity Number of slots, rounded up to a power of two buckets of eight slots
+     * @return The store
+     * @throws IOException If the file can't be mapped, is not a replay store or has another capacity
+     */
+    public static MappedReplayStore open(File file, int capacity) throws IOException {
+        if (!MappedLongs.isSupported()) {
+            throw new IOException("Atomic access to mapped memory is not supported by this JVM");
+        }
+        if (capacity <= 0 || capacity > MAX_BUCKETS * SLOTS) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_BUCKETS * SLOTS);
+        }
+        int needed = (capacity + SLOTS - 1) / SLOTS;
+        int buckets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            // Keeps other processes from reading a half written header
+            FileLock lock = channel.lock();
+            try {
+                if (raf.length() == 0) {
+                    raf.setLength(HEADER_SIZE + (long) buckets * BUCKET_SIZE);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(VERSION);
+                    raf.writeInt(buckets);
+                } else {
+                    if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                        throw new IOException("Not a replay store: " + file);
+                    }
+                    int version = raf.readInt();
+                    if (version != VERSION) {
+                        throw new IOException("Unsupported replay store version " + version + ": " + file);
+                    }
+                    int storedBuckets = raf.readInt();
+                    if (storedBuckets != buckets) {
+                        throw new IOException("Replay store " + file + " holds " + storedBuckets * SLOTS + " slots");
+                    }
+                    if (raf.length() < HEADER_SIZE + (long) buckets * BUCKET_SIZE) {
+                        throw new IOException("Truncated replay store: " + file);
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+            // The mapping outlives the channel
+            return new MappedReplayStore(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE,
+                    (long) buckets * BUCKET_SIZE), buckets);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Number of slots of the store
+     */
+    public int getCapacity() {
+        return buckets * SLOTS;
+    }
+
+    @Override
+    public boolean markUsed(long secretId, long slot, long oldestSlot) {
+        long entry = (long) fingerprint(secretId) << 32 | (slot & 0xFFFFFFFFL);
+        int oldest = (int) oldestSlot;
+        int bucket = (hash(secretId, slot) & mask) * BUCKET_SIZE;
+        while (true) {
+            int free = -1;
+            long freeValue = EMPTY;
+            for (int i = 0; i < SLOTS; i++) {
+                int address = bucket + i * 8;
+                long value = MappedLongs.getVolatile(buffer, address);
+                if (value == entry) {
+                    return false;
+                }
+                if (free < 0 && (value == EMPTY || (int) value - oldest < 0)) {
+                    free = address;
+                    freeValue = value;
+                }
+            }
+            if (free < 0) {
+                return false;
+            }
+            if (MappedLongs.compareAndSet(buffer, free, freeValue, entry)) {
+                // Another process may have claimed a different slot for the same code in the meantime,
+                // whoever sees the other copy loses, so at most one of them accepts the code
+                for (int i = 0; i < SLOTS; i++) {
+                    int address = bucket + i * 8;
+                    if (address != free && MappedLongs.getVolatile(buffer, address) == entry) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param oldestSlot Oldest time step verifiers still accept
+     * @return Number of codes recorded since that step
+     */
+    public int size(long oldestSlot) {
+        int oldest = (int) oldestSlot;
+        int size = 0;
+        for (int i = 0, slots = buckets * SLOTS; i < slots; i++) {
+            long value = MappedLongs.getVolatile(buffer, i * 8);
+            if (value != EMPTY && (int) value - oldest >= 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the table to the file, not needed to share it with other processes
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Writes the table to the file, the mapping itself is released by the garbage collector
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    private static int hash(long secretId, long slot) {
+        long h = secretId * 0x9E3779B97F4A7C15L + slot;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /**
+     * Independent of the bucket hash, never 0 so no entry is {@link #EMPTY}
+     */
+    private static int fingerprint(long secretId) {
+        long h = secretId * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) | 1;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.Hmac;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * TOTP secrets of many users kept off-heap in a memory-mapped file.
+ * <p/>
+ * Users are addressed by index. Each has a fixed-width record holding the decoded key and
+ * its algorithm, digits and interval, so the store survives restarts and opens without
+ * decoding or even touching every secret.
+ * <p/>
+ * Verifications may run concurrently. A {@link #put} racing a verification of the same index
+ * may make that verification fail, it never makes it succeed with a mix of both keys in practice.
+ * <p/>
+ * When the key capacity can hold them, records keep the HMAC pad states of the key instead of
+ * the key itself, see {@link org.jboss.aerogear.security.otp.api.KeyState}: verifications then
+ * skip the key schedule, 40 bytes are needed for SHA1, 64 for SHA256 and 128 for SHA512.
+ * <p/>
+ * File layout, big-endian: a {@value #HEADER_SIZE} byte header (magic, version, capacity, key
+ * capacity) followed by the records. A record starts with state, hash code, digits code and key
+ * length bytes, then the interval in seconds as an int and the key or its pad states, padded to a
+ * multiple of 8 bytes. Hashes and digits are stored as their {@link Hash#getCode()} and
+ * {@link Digits#getCode()}.
+ */
+public class MappedSecretStore implements Closeable {
+
+    static final int HEADER_SIZE = 64;
+    private static final int MAGIC = 0x41474f54;
+    private static final int VERSION = 1;
+    private static final int MAX_KEY_CAPACITY = 255;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private static final byte EMPTY = 0;
+    private static final byte PRESENT = 1;
+    private static final byte PRESENT_STATE = 2;
+
+    private static final int STATE = 0;
+    private static final int HASH = 1;
+    private static final int DIGITS = 2;
+    private static final int KEY_LENGTH = 3;
+    private static final int INTERVAL = 4;
+    private static final int KEY = 8;
+
+    private final int capacity;
+    private final int keyCapacity;
+    private final int recordSize;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final MappedByteBuffer[] segments;
+    private final Clock clock;
+
+    private MappedSecretStore(FileChannel channel, int capacity, int keyCapacity, Clock clock) throws IOException {
+        this.capacity = capacity;
+        this.keyCapacity = keyCapacity;
+        this.recordSize = recordSize(keyCapacity);
+        this.clock = clock;
+        int recordsPerSegment = Integer.highestOneBit(MAX_SEGMENT_SIZE / recordSize);
+        this.segmentShift = Integer.numberOfTrailingZeros(recordsPerSegment);
+        this.segmentMask = recordsPerSegment - 1;
+        this.segments = new MappedByteBuffer[(int) (((long) capacity + recordsPerSegment - 1) >>> segmentShift)];
+        for (int i = 0; i < segments.length; i++) {
+            long first = (long) i << segmentShift;
+            long records = Math.min(recordsPerSegment, capacity - first);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * recordSize,
+                    records * recordSize);
+        }
+    }
+
+    /**
+     * Opens an existing store
+     *
+     * @param file  Store file
+     * @param clock Clock responsible for retrieve the current time
+     * @return The store
+     * @throws IOException If the file can't be mapped or is not a store
+     */
+    public static MappedSecretStore open(File file, Clock clock) throws IOException {
+        if (!file.isFile() || file.length() == 0) {
+            throw new IOException("No secret store at " + file);
+        }
+        return open(file, 0, 0, clock);
+    }
+
+    /**
+     * Opens a store, creating it if the file doesn't exist or is empty
+     *
+     * @param file        Store file
+     * @param capacity    Number of users
+     * @param keyCapacity Maximum key length in bytes, up to 255
+     * @param clock       Clock responsible for retrieve the current time
+     * @return The store
+     * @throws IOException If the file can't be mapped, is not a store or has another capacity
+     */
+    public static MappedSecretStore open(File file, int capacity, int keyCapacity, Clock clock) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (raf.length() == 0) {
+                if (capacity <= 0) {
+                    throw new IllegalArgumentException("Capacity must be positive");
+                }
+                if (keyCapacity <= 0 || keyCapacity > MAX_KEY_CAPACITY) {
+                    throw new IllegalArgumentException("Key capacity must be between 1 and " + MAX_KEY_CAPACITY);
+                }
+                raf.setLength(HEADER_SIZE + (long) capacity * recordSize(keyCapacity));
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(capacity);
+                raf.writeInt(keyCapacity);
+            } else {
+                if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                    throw new IOException("Not a secret store: " + file);
+                }
+                int version = raf.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported secret store version " + version + ": " + file);
+                }
+                int storedCapacity = raf.readInt();
+                int storedKeyCapacity = raf.readInt();
+                if ((capacity != 0 && capacity != storedCapacity) || (keyCapacity != 0 && keyCapacity != storedKeyCapacity)) {
+                    throw new IOException("Secret store " + file + " holds " + storedCapacity + " keys of up to "
+                            + storedKeyCapacity + " bytes");
+                }
+                capacity = storedCapacity;
+                keyCapacity = storedKeyCapacity;
+                if (raf.length() < HEADER_SIZE + (long) capacity * recordSize(keyCapacity)) {
+                    throw new IOException("Truncated secret store: " + file);
+                }
+            }
+            // The mappings outlive the channel
+            return new MappedSecretStore(channel, capacity, keyCapacity, clock);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int recordSize(int keyCapacity) {
+        return (KEY + keyCapacity + 7) & ~7;
+    }
+
+    /**
+     * @return Number of users the store can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Maximum key length in bytes
+     */
+    public int getKeyCapacity() {
+        return keyCapacity;
+    }
+
+    /**
+     * Stores a SHA1, six digits, 30 seconds secret
+     *
+     * @param index User index
+     * @param key   Decoded shared secret
+     */
+    public void put(int index, byte[] key) {
+        put(index, key, Hash.SHA1, Digits.SIX, 30);
+    }
+
+    /**
+     * Stores a secret, replacing the previous one of the user
+     *
+     * @param index    User index
+     * @param key      Decoded shared secret
+     * @param hash     HMAC algorithm of the token
+     * @param digits   Length of the codes
+     * @param interval Time step in seconds
+     */
+    public void put(int index, byte[] key, Hash hash, Digits digits, int interval) {
+        if (key.length == 0 || key.length > keyCapacity) {
+            throw new IllegalArgumentException("Key length must be between 1 and " + keyCapacity);
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        MappedByteBuffer segment = segment(index);
+        int base = offset(index);
+        byte[] state = null;
+        KeyedHmac hmac = keyed(hash, key);
+        if (hmac.hasExportableState() && Hmac.getStateLength(hash) <= keyCapacity) {
+            state = new byte[Hmac.getStateLength(hash)];
+            hmac.exportState(state, 0);
+        }
+        byte[] stored = state != null ? state : key;
+        // Readers skip the record until it is complete
+        segment.put(base + STATE, EMPTY);
+        segment.put(base + HASH, (byte) hash.getCode());
+        segment.put(base + DIGITS, (byte) digits.getCode());
+        segment.put(base + KEY_LENGTH, (byte) stored.length);
+        segment.putInt(base + INTERVAL, interval);
+        for (int i = 0; i < keyCapacity; i++) {
+            segment.put(base + KEY + i, i < stored.length ? stored[i] : 0);
+        }
+        segment.put(base + STATE, state != null ? PRESENT_STATE : PRESENT);
+        if (state != null) {
+            Arrays.fill(state, (byte) 0);
+        }
+    }
+
+    /**
+     * Removes and wipes the secret of a user
+     *
+     * @param index User index
+     */
+    public void remove(int index) {
+        MappedByteBuffer segment = segment(index);
+        int base = offset(index);
+        segment.put(base + STATE, EMPTY);
+        for (int i = 1; i < recordSize; i++) {
+            segment.put(base + i, (byte) 0);
+        }
+    }
+
+    /**
+     * @param index User index
+     * @return True if the user has a secret
+     */
+    public boolean contains(int index) {
+        return segment(index).get(offset(index) + STATE) != EMPTY;
+    }
+
+    /**
+     * Verify a timeout code of a user, see {@link Totp#verify(String)}
+     *
+     * @param index User index
+     * @param otp   Timeout code
+     * @return True if the user has a secret and the timeout code is valid
+     */
+    public boolean verify(int index, String otp) {
+        MappedByteBuffer segment = segment(index);
+        int base = offset(index);
+        if (segment.get(base + STATE) == EMPTY) {
+            return false;
+        }
+        return verify(index, Digits.fromCode(segment.get(base + DIGITS)).parse(otp));
+    }
+
+    /**
+     * Verify an already parsed timeout code of a user
+     *
+     * @param index User index
+     * @param code  Timeout code
+     * @return True if the user has a secret and the timeout code is valid
+     */
+    public boolean verify(int index, int code) {
+        MappedByteBuffer segment = segment(index);
+        int base = offset(index);
+        byte kind = segment.get(base + STATE);
+        if (code < 0 || kind == EMPTY) {
+            return false;
+        }
+        Hash hash = Hash.fromCode(segment.get(base + HASH));
+        Digits digits = Digits.fromCode(segment.get(base + DIGITS));
+        int interval = segment.getInt(base + INTERVAL);
+        byte[] key = new byte[segment.get(base + KEY_LENGTH) & 0xff];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = segment.get(base + KEY + i);
+        }
+        KeyedHmac hmac;
+        try {
+            hmac = kind == PRESENT_STATE ? Hmac.keyedState(hash, key, 0) : keyed(hash, key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+        return TotpEngine.match(hmac, clock.getCurrentSeconds() / interval, code, digits, Totp.DELAY_WINDOW) >= 0;
+    }
+
+    /**
+     * Writes pending changes to the file
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Writes pending changes to the file, the mapping itself is released by the garbage collector
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    private static KeyedHmac keyed(Hash hash, byte[] key) {
+        try {
+            return Hmac.keyed(hash, key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private MappedByteBuffer segment(int index) {
+        if (index < 0 || index >= capacity) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", capacity: " + capacity);
+        }
+        return segments[index >>> segmentShift];
+    }
+
+    private int offset(int index) {
+        return (index & segmentMask) * recordSize;
+    }
+}
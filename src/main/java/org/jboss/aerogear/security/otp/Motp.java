@@ -18,10 +18,11 @@
 package org.jboss.aerogear.security.otp;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import org.apache.commons.codec.binary.Hex;
 import org.jboss.aerogear.security.otp.api.Clock;
 
 /**
@@ -32,7 +33,23 @@ public class Motp {
     private final String secret;
     private final Clock clock;
 	private final String pin;
+    private final ReplayStore replayStore;
+    private final long secretId;
+    private final VerificationListener listener;
+    private final DriftTracker driftTracker;
+    private final int driftSlot;
+    private final AttemptLimiter attemptLimiter;
+    private final long accountId;
+    private final byte[] secretAndPin;
     private static final int DEFAULT_DELAY_WINDOW = 3; //latest 60 seconds -> motp.sourceforge.net tells 3 minutes past/future
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<Md5> MD5 = new ThreadLocal<Md5>() {
+        @Override
+        protected Md5 initialValue() {
+            return new Md5();
+        }
+    };
 
     /**
      * Initialize an OTP instance with the shared secret generated on Registration process
@@ -40,9 +57,7 @@ public class Motp {
      * @param secret Shared secret
      */
     public Motp(String pin, String secret) {
-        this.pin = pin;
-        this.secret = secret;
-        clock = new Clock();
+        this(pin, secret, Clock.getDefault());
     }
 
     /**
@@ -52,9 +67,73 @@ public class Motp {
      * @param clock  Clock responsible for retrieve the current interval
      */
     public Motp(String pin, String secret, Clock clock) {
-    	this.pin = pin;
-    	this.secret = secret;
+        this(pin, secret, clock, null, 0, VerificationListener.NONE, null, 0, null, 0);
+    }
+
+    private Motp(String pin, String secret, Clock clock, ReplayStore replayStore, long secretId,
+                 VerificationListener listener, DriftTracker driftTracker, int driftSlot,
+                 AttemptLimiter attemptLimiter, long accountId) {
+        this.pin = pin;
+        this.secret = secret;
         this.clock = clock;
+        this.replayStore = replayStore;
+        this.secretId = secretId;
+        this.listener = listener;
+        this.driftTracker = driftTracker;
+        this.driftSlot = driftSlot;
+        this.attemptLimiter = attemptLimiter;
+        this.accountId = accountId;
+        this.secretAndPin = (secret + pin).getBytes(UTF_8);
+    }
+
+    /**
+     * Returns a copy of this instance that accepts each code only once
+     *
+     * @param replayStore Store of the codes already used
+     * @param secretId    Identifier of the secret in the store, e.g. the user id
+     * @return Motp rejecting replayed codes
+     */
+    public Motp withReplayStore(ReplayStore replayStore, long secretId) {
+        return new Motp(pin, secret, clock, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId);
+    }
+
+    /**
+     * Returns a copy of this instance that reports every verification
+     *
+     * @param listener Listener, e.g. {@link VerificationMetrics}
+     * @return Motp reporting to the listener
+     */
+    public Motp withListener(VerificationListener listener) {
+        return new Motp(pin, secret, clock, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId);
+    }
+
+    /**
+     * Returns a copy of this instance that searches the last matched offset of the user first, in
+     * steps of 10 seconds within the bounds of the tracker, also capped by the delay window
+     *
+     * @param driftTracker Offsets of the users
+     * @param slot         Slot of the user in the tracker
+     * @return Motp adapting its window to the user
+     */
+    public Motp withDriftTracker(DriftTracker driftTracker, int slot) {
+        return new Motp(pin, secret, clock, replayStore, secretId, listener, driftTracker, slot,
+                attemptLimiter, accountId);
+    }
+
+    /**
+     * Returns a copy of this instance that counts every verification against the attempts of the
+     * account, in 10 seconds time steps, rejecting the code without computing anything once they
+     * are used up
+     *
+     * @param attemptLimiter Attempts of the accounts per time bucket
+     * @param accountId      Identifier of the account in the limiter, e.g. the user id
+     * @return Motp throttling brute force
+     */
+    public Motp withAttemptLimiter(AttemptLimiter attemptLimiter, long accountId) {
+        return new Motp(pin, secret, clock, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId);
     }
 
     /**
@@ -65,7 +144,13 @@ public class Motp {
      * @throws UnsupportedEncodingException 
      */
     public String now() throws NoSuchAlgorithmException, UnsupportedEncodingException {
-    	return generate(this.pin, this.secret, clock.getCurrentSeconds());
+        int code = generate(clock.getCurrentSeconds());
+        char[] otp = new char[6];
+        for (int i = 5; i >= 0; i--) {
+            otp[i] = HEX[code & 0xf];
+            code >>>= 4;
+        }
+        return new String(otp);
     }
 
     /**
@@ -88,39 +173,138 @@ public class Motp {
     }
     
     public boolean verify(String otp, int delayWindow) {
+        long start = listener == VerificationListener.NONE ? 0 : System.nanoTime();
+        int code = parse(otp);
+        if (code < 0) {
+            return report(VerificationListener.Outcome.MALFORMED, VerificationListener.NO_MATCH, 0, start);
+        }
+
         long currentSeconds = clock.getCurrentSeconds();
+        if (attemptLimiter != null && !attemptLimiter.tryAcquire(accountId, currentSeconds / 10)) {
+            return report(VerificationListener.Outcome.THROTTLED, VerificationListener.NO_MATCH, 0, start);
+        }
 
-        int pastResponse = Math.max(delayWindow, 0) * 10;
+        int pastResponse = Math.max(delayWindow, 0);
+        int offset = VerificationListener.NO_MATCH;
+        int candidates = 0;
 
-        for (int i = pastResponse; i >= 0; i = i - 10) {
-            String candidate = generate(this.pin, this.secret, currentSeconds - i);
-            if (otp.equalsIgnoreCase(candidate)) {
-                return true;
+        if (driftTracker != null) {
+            pastResponse = Math.min(pastResponse, driftTracker.getMaxPast());
+            int center = driftTracker.getDrift(driftSlot);
+            for (int k = 0, length = driftTracker.searchLength(driftSlot); k < length; k++) {
+                int candidate = driftTracker.offset(center, k);
+                if (candidate > pastResponse || !driftTracker.inBounds(candidate)) {
+                    continue;
+                }
+                candidates++;
+                if (generate(currentSeconds - candidate * 10L) == code) {
+                    offset = candidate;
+                    driftTracker.record(driftSlot, offset);
+                    break;
+                }
+            }
+        } else {
+            // Newest first, most codes are entered during their own 10 seconds
+            for (int i = 0; i <= pastResponse; i++) {
+                candidates++;
+                if (generate(currentSeconds - i * 10L) == code) {
+                    offset = i;
+                    break;
+                }
             }
         }
-        
-        return false;
+
+        if (offset == VerificationListener.NO_MATCH) {
+            return report(VerificationListener.Outcome.REJECTED, offset, candidates, start);
+        }
+        if (replayStore != null && !replayStore.markUsed(secretId, (currentSeconds - offset * 10L) / 10,
+                (currentSeconds - pastResponse * 10L) / 10)) {
+            return report(VerificationListener.Outcome.REPLAYED, offset, candidates, start);
+        }
+        return report(VerificationListener.Outcome.ACCEPTED, offset, candidates, start);
     }
-    
-    private String generate(String pin, String secret, long epoch){
-    	return hash(pin, secret, epoch).substring(0,6);
+
+    private boolean report(VerificationListener.Outcome outcome, int offset, int candidates, long start) {
+        if (listener != VerificationListener.NONE) {
+            listener.onVerification(outcome, offset, candidates, System.nanoTime() - start);
+        }
+        return outcome == VerificationListener.Outcome.ACCEPTED;
     }
 
-    private String hash(String pin, String secret, long epoch) {
-    	String hash;
-    	try {
-			String base = Long.toString(epoch / 10) + secret + pin;
-			MessageDigest digest = MessageDigest.getInstance("MD5");
-			byte[] bytes = digest.digest(base.getBytes("UTF-8"));
-			
-			return Hex.encodeHexString(bytes);
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			hash = "";
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-			hash = "";
-		}
-    	return hash;
+    /**
+     * The code is the first 6 hex digits of MD5(epoch / 10 + secret + pin), i.e. the first 3 bytes of the digest
+     */
+    private int generate(long epoch) {
+        Md5 md5 = MD5.get();
+        int length = md5.writeDecimal(epoch / 10);
+        md5.digest.update(md5.buffer, md5.buffer.length - length, length);
+        md5.digest.update(secretAndPin);
+        try {
+            md5.digest.digest(md5.buffer, 0, 16);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return ((md5.buffer[0] & 0xff) << 16) | ((md5.buffer[1] & 0xff) << 8) | (md5.buffer[2] & 0xff);
+    }
+
+    /**
+     * @return The 6 hex digits as a 24 bit number, or -1 if the code is malformed
+     */
+    private static int parse(String otp) {
+        if (otp == null || otp.length() != 6) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < 6; i++) {
+            char c = otp.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            code = (code << 4) | digit;
+        }
+        return code;
+    }
+
+    /**
+     * Per-thread MD5 digest and scratch buffer
+     */
+    private static class Md5 {
+
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[20];
+
+        Md5() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support MD5
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Writes the decimal digits of the value at the end of the buffer
+         *
+         * @return Number of characters written
+         */
+        int writeDecimal(long value) {
+            int position = buffer.length;
+            boolean negative = value < 0;
+            do {
+                buffer[--position] = (byte) ('0' + Math.abs(value % 10));
+                value /= 10;
+            } while (value != 0);
+            if (negative) {
+                buffer[--position] = '-';
+            }
+            return buffer.length - position;
+        }
     }
 }
@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+/**
+ * Remembers which codes were already accepted, so a code can only be used once within
+ * its validity window, see {@link Totp#withReplayStore(ReplayStore, long)} and
+ * {@link Motp#withReplayStore(ReplayStore, long)}.
+ * <p/>
+ * Codes are identified by the secret they belong to and the time step, TOTP interval or
+ * MOTP 10 seconds epoch, they were generated for. Implementations must be thread-safe.
+ */
+public interface ReplayStore {
+
+    /**
+     * Records the use of a code
+     *
+     * @param secretId   Identifier of the secret, e.g. the user id
+     * @param slot       Time step the accepted code was generated for
+     * @param oldestSlot Oldest time step the verifier still accepts, older entries can be forgotten
+     * @return True on the first use of the code, false if it is a replay
+     */
+    boolean markUsed(long secretId, long slot, long oldestSlot);
+}
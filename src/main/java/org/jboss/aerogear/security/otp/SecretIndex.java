@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Maps user ids to secret records, e.g. indexes of a {@link MappedSecretStore}.
+ * <p/>
+ * A primitive open addressing table with linear probing and no per-entry objects: the id and
+ * the record of a slot sit next to each other in a single <code>long</code> array, so a lookup
+ * usually touches one cache line. Reads are lock-free, writes are serialised and meant to be rare.
+ * <p/>
+ * A slot is never handed to another id until the table is rebuilt into a new array, so a reader
+ * can't pair an id with the record of another one. Removed slots are reclaimed by the next rebuild,
+ * which also happens when the table grows. At most three quarters of the slots are used, i.e.
+ * 10M users take a table of 2^24 slots, 256 MB, and twice as much while it is rebuilt.
+ */
+public class SecretIndex {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    // Slot states, otherwise the record + 1
+    private static final long FREE = 0;
+    private static final long REMOVED = -1;
+
+    /**
+     * Slot <code>i</code> holds the id at <code>2 * i</code> and the state at <code>2 * i + 1</code>
+     */
+    private volatile AtomicLongArray table;
+
+    // Guarded by this
+    private int size;
+    private int removed;
+    private int threshold;
+
+    public SecretIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of users, the table is sized so it won't need to grow
+     */
+    public SecretIndex(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        this.table = new AtomicLongArray(2 * capacity);
+        this.threshold = threshold(capacity);
+    }
+
+    /**
+     * @param id User id
+     * @return The record of the user, or -1 if there is none
+     */
+    public int get(long id) {
+        AtomicLongArray table = this.table;
+        int mask = (table.length() >>> 1) - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            long state = table.get(2 * i + 1);
+            if (state == FREE) {
+                return -1;
+            }
+            if (state != REMOVED && table.get(2 * i) == id) {
+                return (int) (state - 1);
+            }
+        }
+    }
+
+    /**
+     * @param id     User id
+     * @param record Record of the user
+     * @return The previous record of the user, or -1 if there was none
+     */
+    public synchronized int put(long id, int record) {
+        if (record < 0) {
+            throw new IllegalArgumentException("Record must not be negative");
+        }
+        AtomicLongArray table = this.table;
+        int mask = (table.length() >>> 1) - 1;
+        int i = hash(id) & mask;
+        for (; ; i = (i + 1) & mask) {
+            long state = table.get(2 * i + 1);
+            if (state == FREE) {
+                break;
+            }
+            if (table.get(2 * i) == id) {
+                // Same id, even a removed slot can be revived in place
+                table.lazySet(2 * i + 1, record + 1L);
+                if (state == REMOVED) {
+                    removed--;
+                    size++;
+                    return -1;
+                }
+                return (int) (state - 1);
+            }
+        }
+        if (size + removed + 1 > threshold) {
+            rebuild(size + 1);
+            table = this.table;
+            mask = (table.length() >>> 1) - 1;
+            i = hash(id) & mask;
+            while (table.get(2 * i + 1) != FREE) {
+                i = (i + 1) & mask;
+            }
+        }
+        // The id is published before the state that makes readers look at it
+        table.lazySet(2 * i, id);
+        table.lazySet(2 * i + 1, record + 1L);
+        size++;
+        return -1;
+    }
+
+    /**
+     * @param id User id
+     * @return The removed record of the user, or -1 if there was none
+     */
+    public synchronized int remove(long id) {
+        AtomicLongArray table = this.table;
+        int mask = (table.length() >>> 1) - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            long state = table.get(2 * i + 1);
+            if (state == FREE) {
+                return -1;
+            }
+            if (state != REMOVED && table.get(2 * i) == id) {
+                table.lazySet(2 * i + 1, REMOVED);
+                size--;
+                removed++;
+                return (int) (state - 1);
+            }
+        }
+    }
+
+    /**
+     * @return Number of users
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies the live slots into a new table, readers switch over when it is published
+     */
+    private void rebuild(int expectedSize) {
+        AtomicLongArray old = this.table;
+        int capacity = capacityFor(expectedSize);
+        AtomicLongArray table = new AtomicLongArray(2 * capacity);
+        int mask = capacity - 1;
+        for (int j = 0, length = old.length(); j < length; j += 2) {
+            long state = old.get(j + 1);
+            if (state == FREE || state == REMOVED) {
+                continue;
+            }
+            long id = old.get(j);
+            int i = hash(id) & mask;
+            while (table.get(2 * i + 1) != FREE) {
+                i = (i + 1) & mask;
+            }
+            table.lazySet(2 * i, id);
+            table.lazySet(2 * i + 1, state);
+        }
+        this.removed = 0;
+        this.threshold = threshold(capacity);
+        this.table = table;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (threshold(capacity) < expectedSize) {
+            if (capacity == MAX_CAPACITY) {
+                throw new IllegalStateException("Index full");
+            }
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int threshold(int capacity) {
+        return capacity - (capacity >>> 2);
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.Arrays;
+
+/**
+ * In-process {@link ReplayStore}.
+ * <p/>
+ * Entries are spread over many independently locked stripes, each one a primitive open
+ * addressing table without per-entry objects, so concurrent verifications of different
+ * users almost never wait on each other. Entries older than the oldest accepted time step
+ * are reused in place and dropped whenever a stripe is resized, which keeps the memory
+ * bounded to roughly one verification window of codes.
+ */
+public class StripedReplayStore implements ReplayStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * Store with four stripes per available processor
+     */
+    public StripedReplayStore() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param stripes Number of stripes, rounded up to a power of two
+     */
+    public StripedReplayStore(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public boolean markUsed(long secretId, long slot, long oldestSlot) {
+        long hash = hash(secretId, slot);
+        Stripe stripe = stripes[(int) hash & mask];
+        synchronized (stripe) {
+            // The high half picks the entry within the stripe, so large stripes don't cluster
+            return stripe.add((int) (hash >>> 32), secretId, slot, oldestSlot);
+        }
+    }
+
+    /**
+     * @return Number of recorded codes, including expired ones not reclaimed yet
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.used;
+            }
+        }
+        return size;
+    }
+
+    private static long hash(long secretId, long slot) {
+        long h = secretId * 0x9E3779B97F4A7C15L + slot;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+
+    private static class Stripe {
+
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private long[] slots = newSlots(INITIAL_CAPACITY);
+        private int used;
+
+        boolean add(int hash, long secretId, long slot, long oldestSlot) {
+            int mask = slots.length - 1;
+            int index = hash & mask;
+            int expired = -1;
+            while (slots[index] != EMPTY) {
+                if (slots[index] < oldestSlot) {
+                    if (expired < 0) {
+                        expired = index;
+                    }
+                } else if (slots[index] == slot && ids[index] == secretId) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            if (expired >= 0) {
+                ids[expired] = secretId;
+                slots[expired] = slot;
+                return true;
+            }
+            if ((used + 1) * 4 > slots.length * 3) {
+                resize(oldestSlot);
+                return add(hash, secretId, slot, oldestSlot);
+            }
+            ids[index] = secretId;
+            slots[index] = slot;
+            used++;
+            return true;
+        }
+
+        /**
+         * Rehashes the live entries into a table at most half full, shrinking it if most entries expired
+         */
+        private void resize(long oldestSlot) {
+            long[] oldIds = ids;
+            long[] oldSlots = slots;
+            int live = 0;
+            for (long s : oldSlots) {
+                if (s != EMPTY && s >= oldestSlot) {
+                    live++;
+                }
+            }
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < (live + 1) * 2) {
+                capacity <<= 1;
+            }
+            ids = new long[capacity];
+            slots = newSlots(capacity);
+            used = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != EMPTY && oldSlots[i] >= oldestSlot) {
+                    int index = (int) (hash(oldIds[i], oldSlots[i]) >>> 32) & mask;
+                    while (slots[index] != EMPTY) {
+                        index = (index + 1) & mask;
+                    }
+                    ids[index] = oldIds[i];
+                    slots[index] = oldSlots[i];
+                    used++;
+                }
+            }
+        }
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+    }
+}
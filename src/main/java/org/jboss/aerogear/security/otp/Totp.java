@@ -17,22 +17,31 @@
 
 package org.jboss.aerogear.security.otp;
 
-import org.jboss.aerogear.security.otp.api.Base32;
 import org.jboss.aerogear.security.otp.api.Clock;
 import org.jboss.aerogear.security.otp.api.Digits;
 import org.jboss.aerogear.security.otp.api.Hash;
-import org.jboss.aerogear.security.otp.api.Hmac;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 public class Totp {
 
     private final String secret;
     private final Clock clock;
-    private static final int DELAY_WINDOW = 1;
+    private final Hash hash;
+    private final Digits digits;
+    private final TotpCache cache;
+    private final ReplayStore replayStore;
+    private final long secretId;
+    private final VerificationListener listener;
+    private final DriftTracker driftTracker;
+    private final int driftSlot;
+    private final AttemptLimiter attemptLimiter;
+    private final long accountId;
+    private final TotpEngine engine;
+    private KeyedHmac hmac;
+    static final int DELAY_WINDOW = 1;
 
     /**
      * Initialize an OTP instance with the shared secret generated on Registration process
@@ -40,8 +49,7 @@ public class Totp {
      * @param secret Shared secret
      */
     public Totp(String secret) {
-        this.secret = secret;
-        clock = new Clock();
+        this(secret, Clock.getDefault());
     }
 
     /**
@@ -51,8 +59,111 @@ public class Totp {
      * @param clock  Clock responsible for retrieve the current interval
      */
     public Totp(String secret, Clock clock) {
+        this(secret, clock, Hash.SHA1);
+    }
+
+    /**
+     * Initialize an OTP instance with the shared secret generated on Registration process
+     *
+     * @param secret Shared secret
+     * @param clock  Clock responsible for retrieve the current interval
+     * @param hash   HMAC algorithm of the token, RFC 6238 allows SHA1, SHA256 and SHA512
+     */
+    public Totp(String secret, Clock clock, Hash hash) {
+        this(secret, clock, hash, Digits.SIX);
+    }
+
+    /**
+     * Initialize an OTP instance with the shared secret generated on Registration process
+     *
+     * @param secret Shared secret
+     * @param clock  Clock responsible for retrieve the current interval
+     * @param hash   HMAC algorithm of the token, RFC 6238 allows SHA1, SHA256 and SHA512
+     * @param digits Length of the codes
+     */
+    public Totp(String secret, Clock clock, Hash hash, Digits digits) {
+        this(secret, clock, hash, digits, null, null, 0, VerificationListener.NONE, null, 0, null, 0, null);
+    }
+
+    private Totp(String secret, Clock clock, Hash hash, Digits digits, TotpCache cache, ReplayStore replayStore,
+                 long secretId, VerificationListener listener, DriftTracker driftTracker, int driftSlot,
+                 AttemptLimiter attemptLimiter, long accountId, KeyedHmac hmac) {
         this.secret = secret;
         this.clock = clock;
+        this.hash = hash;
+        this.digits = digits;
+        this.cache = cache;
+        this.replayStore = replayStore;
+        this.secretId = secretId;
+        this.listener = listener;
+        this.driftTracker = driftTracker;
+        this.driftSlot = driftSlot;
+        this.attemptLimiter = attemptLimiter;
+        this.accountId = accountId;
+        this.engine = new TotpEngine(clock, hash, digits, DELAY_WINDOW);
+        this.hmac = hmac;
+    }
+
+    /**
+     * Returns a copy of this instance that remembers the codes of the current interval
+     * in a cache shared by all the Totp instances of the application
+     *
+     * @param cache Code cache
+     * @return Totp using the cache
+     */
+    public Totp withCache(TotpCache cache) {
+        return new Totp(secret, clock, hash, digits, cache, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId, hmac);
+    }
+
+    /**
+     * Returns a copy of this instance that accepts each code only once
+     *
+     * @param replayStore Store of the codes already used
+     * @param secretId    Identifier of the secret in the store, e.g. the user id
+     * @return Totp rejecting replayed codes
+     */
+    public Totp withReplayStore(ReplayStore replayStore, long secretId) {
+        return new Totp(secret, clock, hash, digits, cache, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId, hmac);
+    }
+
+    /**
+     * Returns a copy of this instance that reports every verification
+     *
+     * @param listener Listener, e.g. {@link VerificationMetrics}
+     * @return Totp reporting to the listener
+     */
+    public Totp withListener(VerificationListener listener) {
+        return new Totp(secret, clock, hash, digits, cache, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId, hmac);
+    }
+
+    /**
+     * Returns a copy of this instance that searches the last matched offset of the user first,
+     * within the bounds of the tracker instead of the default delay window. The code cache is
+     * not used then.
+     *
+     * @param driftTracker Offsets of the users
+     * @param slot         Slot of the user in the tracker
+     * @return Totp adapting its window to the user
+     */
+    public Totp withDriftTracker(DriftTracker driftTracker, int slot) {
+        return new Totp(secret, clock, hash, digits, cache, replayStore, secretId, listener, driftTracker, slot,
+                attemptLimiter, accountId, hmac);
+    }
+
+    /**
+     * Returns a copy of this instance that counts every verification against the attempts of the
+     * account, rejecting the code without computing anything once they are used up
+     *
+     * @param attemptLimiter Attempts of the accounts per time bucket
+     * @param accountId      Identifier of the account in the limiter, e.g. the user id
+     * @return Totp throttling brute force
+     */
+    public Totp withAttemptLimiter(AttemptLimiter attemptLimiter, long accountId) {
+        return new Totp(secret, clock, hash, digits, cache, replayStore, secretId, listener, driftTracker, driftSlot,
+                attemptLimiter, accountId, hmac);
     }
 
     /**
@@ -64,7 +175,14 @@ public class Totp {
      */
     public String uri(String name) {
         try {
-            return String.format("otpauth://totp/%s?secret=%s", URLEncoder.encode(name, "UTF-8"), secret);
+            String uri = String.format("otpauth://totp/%s?secret=%s", URLEncoder.encode(name, "UTF-8"), secret);
+            if (hash != Hash.SHA1) {
+                uri += "&algorithm=" + hash.name();
+            }
+            if (digits != Digits.SIX) {
+                uri += "&digits=" + digits.getLength();
+            }
+            return uri;
         } catch (UnsupportedEncodingException e) {
             throw new IllegalArgumentException(e.getMessage(), e);
         }
@@ -76,7 +194,7 @@ public class Totp {
      * @return OTP
      */
     public String now() {
-        return leftPadding(hash(secret, clock.getCurrentInterval()));
+        return engine.now(hmac());
     }
 
     /**
@@ -95,54 +213,116 @@ public class Totp {
      *         Author: sweis@google.com (Steve Weis)
      */
     public boolean verify(String otp) {
+        return verify(digits.parse(otp));
+    }
 
-        long code = Long.parseLong(otp);
-        long currentInterval = clock.getCurrentInterval();
+    /**
+     * Verify a timeout code held in a character buffer, e.g. straight from a request body
+     *
+     * @param otp Buffer holding the timeout code
+     * @param off Offset of the code
+     * @param len Length of the code
+     * @return True if the timeout code is valid
+     */
+    public boolean verify(char[] otp, int off, int len) {
+        return verify(digits.parse(otp, off, len));
+    }
 
+    /**
+     * Verify an already parsed timeout code
+     *
+     * @param code Timeout code
+     * @return True if the timeout code is valid
+     */
+    public boolean verify(int code) {
+        long start = listener == VerificationListener.NONE ? 0 : System.nanoTime();
+        if (code < 0) {
+            return report(VerificationListener.Outcome.MALFORMED, VerificationListener.NO_MATCH, 0, start);
+        }
+        long currentInterval = clock.getCurrentInterval();
+        if (attemptLimiter != null && !attemptLimiter.tryAcquire(accountId, currentInterval)) {
+            return report(VerificationListener.Outcome.THROTTLED, VerificationListener.NO_MATCH, 0, start);
+        }
         int pastResponse = Math.max(DELAY_WINDOW, 0);
-
-        for (int i = pastResponse; i >= 0; --i) {
-            int candidate = generate(this.secret, currentInterval - i);
-            if (candidate == code) {
-                return true;
+        int offset = VerificationListener.NO_MATCH;
+        int candidates = 0;
+        if (driftTracker != null) {
+            pastResponse = driftTracker.getMaxPast();
+            KeyedHmac hmac = hmac();
+            int center = driftTracker.getDrift(driftSlot);
+            for (int k = 0, length = driftTracker.searchLength(driftSlot); k < length; k++) {
+                int candidate = driftTracker.offset(center, k);
+                if (!driftTracker.inBounds(candidate)) {
+                    continue;
+                }
+                candidates++;
+                if (TotpEngine.generate(hmac, currentInterval - candidate, digits) == code) {
+                    offset = candidate;
+                    driftTracker.record(driftSlot, offset);
+                    break;
+                }
+            }
+        } else if (cache == null) {
+            int matched = engine.match(hmac(), currentInterval, code);
+            candidates = matched < 0 ? pastResponse + 1 : matched + 1;
+            if (matched >= 0) {
+                offset = matched;
+            }
+        } else {
+            int[] codes = cache.get(secret, hash, digits, currentInterval);
+            if (codes == null) {
+                codes = generateWindow(hmac(), currentInterval, digits);
+                cache.put(secret, hash, digits, currentInterval, codes);
+                candidates = codes.length;
+            }
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] == code) {
+                    offset = codes.length - 1 - i;
+                    break;
+                }
             }
         }
-        return false;
-    }
-
-    private int generate(String secret, long interval) {
-        return hash(secret, interval);
+        if (offset == VerificationListener.NO_MATCH) {
+            return report(VerificationListener.Outcome.REJECTED, offset, candidates, start);
+        }
+        if (replayStore != null
+                && !replayStore.markUsed(secretId, currentInterval - offset, currentInterval - pastResponse)) {
+            return report(VerificationListener.Outcome.REPLAYED, offset, candidates, start);
+        }
+        return report(VerificationListener.Outcome.ACCEPTED, offset, candidates, start);
     }
 
-    private int hash(String secret, long interval) {
-        byte[] hash = new byte[0];
-        try {
-            //Base32 encoding is just a requirement for google authenticator. We can remove it on the next releases.
-            hash = new Hmac(Hash.SHA1, Base32.decode(secret), interval).digest();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (Base32.DecodingException e) {
-            e.printStackTrace();
+    private boolean report(VerificationListener.Outcome outcome, int offset, int candidates, long start) {
+        if (listener != VerificationListener.NONE) {
+            listener.onVerification(outcome, offset, candidates, System.nanoTime() - start);
         }
-        return bytesToInt(hash);
+        return outcome == VerificationListener.Outcome.ACCEPTED;
     }
 
-    private int bytesToInt(byte[] hash) {
-        // put selected bytes into result int
-        int offset = hash[hash.length - 1] & 0xf;
-
-        int binary = ((hash[offset] & 0x7f) << 24) |
-                ((hash[offset + 1] & 0xff) << 16) |
-                ((hash[offset + 2] & 0xff) << 8) |
-                (hash[offset + 3] & 0xff);
-
-        return binary % Digits.SIX.getValue();
+    /**
+     * @return Every code accepted during the interval, oldest first
+     */
+    private static int[] generateWindow(KeyedHmac hmac, long currentInterval, Digits digits) {
+        int pastResponse = Math.max(DELAY_WINDOW, 0);
+        int[] codes = new int[pastResponse + 1];
+        for (int i = pastResponse; i >= 0; --i) {
+            codes[pastResponse - i] = TotpEngine.generate(hmac, currentInterval - i, digits);
+        }
+        return codes;
     }
 
-    private String leftPadding(int otp) {
-        return String.format("%06d", otp);
+    /**
+     * The secret is decoded and keyed once, the engine is then shared by every candidate
+     * of every verification. Racing threads may key it twice, which is harmless.
+     */
+    private KeyedHmac hmac() {
+        KeyedHmac hmac = this.hmac;
+        if (hmac == null) {
+            //Base32 encoding is just a requirement for google authenticator. We can remove it on the next releases.
+            hmac = engine.key(secret);
+            this.hmac = hmac;
+        }
+        return hmac;
     }
 
 }
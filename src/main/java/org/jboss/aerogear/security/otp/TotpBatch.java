@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Verifies or generates TOTP codes for many secrets at once.
+ * <p/>
+ * The clock is read once for the whole batch, so every item is checked against the same
+ * interval. Work is split across a {@link ForkJoinPool} and each worker keeps its own
+ * pooled HMAC state, see {@link KeyedHmac}.
+ */
+public class TotpBatch {
+
+    /**
+     * Items handled by a single task, a multiple of 64 so tasks never share a word of the result
+     */
+    private static final int THRESHOLD = 256;
+
+    private TotpBatch() {
+    }
+
+    /**
+     * Verifies codes against secrets on the common pool
+     *
+     * @param secrets Shared secrets
+     * @param codes   Timeout codes, one per secret
+     * @param clock   Clock responsible for retrieve the current interval
+     * @return Bit <code>i</code> is set if <code>codes[i]</code> is valid for <code>secrets[i]</code>
+     */
+    public static BitSet verifyAll(String[] secrets, int[] codes, Clock clock) {
+        return verifyAll(secrets, codes, new TotpEngine(clock));
+    }
+
+    /**
+     * Verifies codes against secrets. Malformed secrets are reported as invalid codes.
+     *
+     * @param secrets Shared secrets
+     * @param codes   Timeout codes, one per secret
+     * @param clock   Clock responsible for retrieve the current interval
+     * @param pool    Pool running the verification
+     * @return Bit <code>i</code> is set if <code>codes[i]</code> is valid for <code>secrets[i]</code>
+     */
+    public static BitSet verifyAll(String[] secrets, int[] codes, Clock clock, ForkJoinPool pool) {
+        return verifyAll(secrets, codes, new TotpEngine(clock), pool);
+    }
+
+    /**
+     * Verifies codes against secrets on the common pool
+     *
+     * @param secrets Shared secrets
+     * @param codes   Timeout codes, one per secret
+     * @param engine  Clock, hash, digits and window of the secrets
+     * @return Bit <code>i</code> is set if <code>codes[i]</code> is valid for <code>secrets[i]</code>
+     */
+    public static BitSet verifyAll(String[] secrets, int[] codes, TotpEngine engine) {
+        return verifyAll(secrets, codes, engine, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Verifies codes against secrets. Malformed secrets are reported as invalid codes.
+     *
+     * @param secrets Shared secrets
+     * @param codes   Timeout codes, one per secret
+     * @param engine  Clock, hash, digits and window of the secrets
+     * @param pool    Pool running the verification
+     * @return Bit <code>i</code> is set if <code>codes[i]</code> is valid for <code>secrets[i]</code>
+     */
+    public static BitSet verifyAll(String[] secrets, int[] codes, TotpEngine engine, ForkJoinPool pool) {
+        if (secrets.length != codes.length) {
+            throw new IllegalArgumentException("Expected one code per secret");
+        }
+        long[] words = new long[(secrets.length + 63) >>> 6];
+        pool.invoke(new VerifyTask(engine, secrets, codes, engine.getClock().getCurrentInterval(), words, 0,
+                secrets.length));
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Retrieves the current OTP of every secret on the common pool
+     *
+     * @param secrets Shared secrets
+     * @param clock   Clock responsible for retrieve the current interval
+     * @return OTPs, in the order of the secrets
+     */
+    public static String[] now(String[] secrets, Clock clock) {
+        return now(secrets, new TotpEngine(clock));
+    }
+
+    /**
+     * Retrieves the current OTP of every secret. Malformed secrets get a <code>null</code> OTP.
+     *
+     * @param secrets Shared secrets
+     * @param clock   Clock responsible for retrieve the current interval
+     * @param pool    Pool running the generation
+     * @return OTPs, in the order of the secrets
+     */
+    public static String[] now(String[] secrets, Clock clock, ForkJoinPool pool) {
+        return now(secrets, new TotpEngine(clock), pool);
+    }
+
+    /**
+     * Retrieves the current OTP of every secret on the common pool
+     *
+     * @param secrets Shared secrets
+     * @param engine  Clock, hash and digits of the secrets
+     * @return OTPs, in the order of the secrets
+     */
+    public static String[] now(String[] secrets, TotpEngine engine) {
+        return now(secrets, engine, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Retrieves the current OTP of every secret. Malformed secrets get a <code>null</code> OTP.
+     *
+     * @param secrets Shared secrets
+     * @param engine  Clock, hash and digits of the secrets
+     * @param pool    Pool running the generation
+     * @return OTPs, in the order of the secrets
+     */
+    public static String[] now(String[] secrets, TotpEngine engine, ForkJoinPool pool) {
+        String[] otps = new String[secrets.length];
+        pool.invoke(new GenerateTask(engine, secrets, otps, engine.getClock().getCurrentInterval(), 0,
+                secrets.length));
+        return otps;
+    }
+
+    private static KeyedHmac keyed(TotpEngine engine, String secret) {
+        try {
+            return engine.key(secret);
+        } catch (IllegalArgumentException e) {
+            // Empty, not Base32 or rejected by the HMAC
+            return null;
+        }
+    }
+
+    private static class VerifyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TotpEngine engine;
+        private final String[] secrets;
+        private final int[] codes;
+        private final long interval;
+        private final long[] words;
+        private final int from;
+        private final int to;
+
+        VerifyTask(TotpEngine engine, String[] secrets, int[] codes, long interval, long[] words, int from, int to) {
+            this.engine = engine;
+            this.secrets = secrets;
+            this.codes = codes;
+            this.interval = interval;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = from + (((to - from) / THRESHOLD + 1) / 2) * THRESHOLD;
+                invokeAll(new VerifyTask(engine, secrets, codes, interval, words, from, middle),
+                        new VerifyTask(engine, secrets, codes, interval, words, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                KeyedHmac hmac = keyed(engine, secrets[i]);
+                if (hmac != null && engine.match(hmac, interval, codes[i]) >= 0) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    private static class GenerateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TotpEngine engine;
+        private final String[] secrets;
+        private final String[] otps;
+        private final long interval;
+        private final int from;
+        private final int to;
+
+        GenerateTask(TotpEngine engine, String[] secrets, String[] otps, long interval, int from, int to) {
+            this.engine = engine;
+            this.secrets = secrets;
+            this.otps = otps;
+            this.interval = interval;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new GenerateTask(engine, secrets, otps, interval, from, middle),
+                        new GenerateTask(engine, secrets, otps, interval, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                KeyedHmac hmac = keyed(engine, secrets[i]);
+                if (hmac != null) {
+                    otps[i] = engine.getDigits().format(engine.generate(hmac, interval));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the codes accepted for a secret during the current interval, so retries
+ * and double submits in the same interval cost a lookup instead of a window of HMACs.
+ * <p/>
+ * Entries are only valid for the interval and algorithm they were computed for, the whole cache is
+ * dropped as soon as a newer interval is seen. Within an interval, the least recently used
+ * secrets are evicted once the cache is full. The cache is split in independently locked
+ * segments and can be shared by every {@link Totp} of the application, see
+ * {@link Totp#withCache(TotpCache)}.
+ */
+public class TotpCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int mask;
+    private final AtomicLong interval = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries Maximum number of secrets kept, split across the segments. Small caches
+     *                   have fewer segments, so each keeps at least one secret
+     */
+    public TotpCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        int count = Integer.highestOneBit(Math.min(maxEntries, MAX_SEGMENTS));
+        segments = new Segment[count];
+        mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            // The remainder goes to the first segments, the sizes add up to maxEntries
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return Codes cached for the secret and interval, oldest interval first, or null
+     */
+    int[] get(String secret, Hash hash, Digits digits, long currentInterval) {
+        int[] codes = segment(secret).get(secret, hash, digits, currentInterval);
+        if (codes == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return codes;
+    }
+
+    void put(String secret, Hash hash, Digits digits, long currentInterval, int[] codes) {
+        long latest = interval.get();
+        if (currentInterval < latest) {
+            return;
+        }
+        if (currentInterval > latest && interval.compareAndSet(latest, currentInterval)) {
+            clear();
+        }
+        segment(secret).put(secret, new CachedCodes(currentInterval, hash, digits, codes));
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segment(String secret) {
+        int h = secret.hashCode();
+        h ^= h >>> 16;
+        return segments[h & mask];
+    }
+
+    private static class CachedCodes {
+        private final long interval;
+        private final Hash hash;
+        private final Digits digits;
+        private final int[] codes;
+
+        CachedCodes(long interval, Hash hash, Digits digits, int[] codes) {
+            this.interval = interval;
+            this.hash = hash;
+            this.digits = digits;
+            this.codes = codes;
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<String, CachedCodes> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized int[] get(String secret, Hash hash, Digits digits, long currentInterval) {
+            CachedCodes entry = super.get(secret);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.interval != currentInterval || entry.hash != hash || entry.digits != digits) {
+                super.remove(secret);
+                return null;
+            }
+            return entry.codes;
+        }
+
+        @Override
+        public synchronized CachedCodes put(String secret, CachedCodes entry) {
+            return super.put(secret, entry);
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedCodes> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.Hmac;
+import org.jboss.aerogear.security.otp.api.KeyState;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * TOTP algorithm configured once, e.g. per tenant, for any number of secrets.
+ * <p/>
+ * The engine holds no secret: keys are passed to every call, either as raw bytes or as a key
+ * handle from {@link #key(byte[], int, int)} that callers may keep, e.g. next to the user. Handles
+ * make verifications allocation free. Instances are immutable and thread-safe, the digest buffers
+ * are shared per thread by every engine.
+ * <p/>
+ * The window is the number of past intervals whose codes are still accepted. {@link Totp} wraps
+ * an engine with a window of one interval for a single secret.
+ */
+public class TotpEngine {
+
+    private static final int MAX_WINDOW = 100;
+    private static final ThreadLocal<byte[]> DIGEST = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64];
+        }
+    };
+
+    private final Clock clock;
+    private final Hash hash;
+    private final Digits digits;
+    private final int window;
+
+    /**
+     * Google Authenticator compatible engine: SHA1, six digits, 30 seconds intervals and codes of
+     * the previous interval accepted
+     */
+    public TotpEngine() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * @param clock Clock responsible for retrieve the current interval
+     */
+    public TotpEngine(Clock clock) {
+        this(clock, Hash.SHA1, Digits.SIX, 1);
+    }
+
+    /**
+     * @param clock  Clock responsible for retrieve the current interval
+     * @param hash   HMAC algorithm of the tokens
+     * @param digits Length of the codes
+     * @param window Past intervals whose codes are still accepted
+     */
+    public TotpEngine(Clock clock, Hash hash, Digits digits, int window) {
+        if (window < 0 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("Window must be between 0 and " + MAX_WINDOW);
+        }
+        this.clock = clock;
+        this.hash = hash;
+        this.digits = digits;
+        this.window = window;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public Hash getHash() {
+        return hash;
+    }
+
+    public Digits getDigits() {
+        return digits;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Keys a handle for a secret, to be reused across verifications
+     *
+     * @param key Buffer holding the decoded secret
+     * @param off Offset of the secret
+     * @param len Length of the secret
+     * @return Key handle, also usable by engines with the same hash
+     */
+    public KeyedHmac key(byte[] key, int off, int len) {
+        byte[] secret = Arrays.copyOfRange(key, off, off + len);
+        try {
+            return Hmac.keyed(hash, secret);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Keys a handle for a Base32 encoded secret, as shared with Google Authenticator
+     *
+     * @param secret Shared secret
+     * @return Key handle
+     */
+    public KeyedHmac key(String secret) {
+        byte[] decoded;
+        try {
+            decoded = Base32.decode(secret);
+        } catch (Base32.DecodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        try {
+            return key(decoded, 0, decoded.length);
+        } finally {
+            Arrays.fill(decoded, (byte) 0);
+        }
+    }
+
+    /**
+     * Restores a key handle from its stored state, without decoding nor keying the secret
+     *
+     * @param state Buffer holding a key state, see {@link KeyState#encode(KeyedHmac)}
+     * @param off   Offset of the key state
+     * @return Key handle
+     */
+    public KeyedHmac load(byte[] state, int off) {
+        KeyedHmac key = KeyState.read(state, off);
+        checkHash(key);
+        return key;
+    }
+
+    /**
+     * @param key Key handle
+     * @return Code of the current interval
+     */
+    public int generate(KeyedHmac key) {
+        return generate(key, clock.getCurrentInterval());
+    }
+
+    /**
+     * @param key      Key handle
+     * @param interval Time step
+     * @return Code of the interval
+     */
+    public int generate(KeyedHmac key, long interval) {
+        checkHash(key);
+        return generate(key, interval, digits);
+    }
+
+    /**
+     * @param key Buffer holding the decoded secret
+     * @param off Offset of the secret
+     * @param len Length of the secret
+     * @return Code of the current interval
+     */
+    public int generate(byte[] key, int off, int len) {
+        return generate(key(key, off, len));
+    }
+
+    /**
+     * @param key Key handle
+     * @return Code of the current interval, zero padded
+     */
+    public String now(KeyedHmac key) {
+        return digits.format(generate(key));
+    }
+
+    /**
+     * @param key Key handle
+     * @param otp Timeout code
+     * @return True if the timeout code is valid
+     */
+    public boolean verify(KeyedHmac key, String otp) {
+        return verify(key, digits.parse(otp));
+    }
+
+    /**
+     * @param key  Key handle
+     * @param code Already parsed timeout code
+     * @return True if the timeout code is valid
+     */
+    public boolean verify(KeyedHmac key, int code) {
+        return match(key, clock.getCurrentInterval(), code) >= 0;
+    }
+
+    /**
+     * @param key Buffer holding the decoded secret
+     * @param off Offset of the secret
+     * @param len Length of the secret
+     * @param otp Timeout code
+     * @return True if the timeout code is valid
+     */
+    public boolean verify(byte[] key, int off, int len, String otp) {
+        int code = digits.parse(otp);
+        return code >= 0 && verify(key(key, off, len), code);
+    }
+
+    /**
+     * Finds the interval of a code, e.g. to record it in a {@link ReplayStore}
+     *
+     * @param key             Key handle
+     * @param currentInterval Current time step
+     * @param code            Already parsed timeout code
+     * @return How many intervals ago the code was generated, or -1 if it is not valid
+     */
+    public int match(KeyedHmac key, long currentInterval, int code) {
+        checkHash(key);
+        return match(key, currentInterval, code, digits, window);
+    }
+
+    private void checkHash(KeyedHmac key) {
+        if (key.getHash() != hash) {
+            throw new IllegalArgumentException("Key for " + key.getHash() + " used with a " + hash + " engine");
+        }
+    }
+
+    /**
+     * Newest first, most codes are entered during their own interval
+     */
+    static int match(KeyedHmac hmac, long currentInterval, int code, Digits digits, int window) {
+        if (code < 0) {
+            return -1;
+        }
+        for (int i = 0; i <= window; i++) {
+            if (generate(hmac, currentInterval - i, digits) == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int generate(KeyedHmac hmac, long counter, Digits digits) {
+        byte[] hash = DIGEST.get();
+        int length = hmac.digest(counter, hash, 0);
+        return bytesToInt(hash, length) % digits.getValue();
+    }
+
+    /**
+     * @return The dynamically truncated 31 bit value, before reduction to the number of digits
+     */
+    private static int bytesToInt(byte[] hash, int length) {
+        // put selected bytes into result int
+        int offset = hash[length - 1] & 0xf;
+
+        int binary = ((hash[offset] & 0x7f) << 24) |
+                ((hash[offset + 1] & 0xff) << 16) |
+                ((hash[offset + 2] & 0xff) << 8) |
+                (hash[offset + 3] & 0xff);
+
+        return binary;
+    }
+}
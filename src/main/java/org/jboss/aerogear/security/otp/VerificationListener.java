@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+/**
+ * Receives the result of every verification, e.g. to collect metrics, see {@link VerificationMetrics}.
+ * <p/>
+ * Called on the verifying thread, implementations must be thread-safe and fast.
+ */
+public interface VerificationListener {
+
+    enum Outcome {
+        /**
+         * The code is valid
+         */
+        ACCEPTED,
+        /**
+         * The code doesn't match any accepted time step
+         */
+        REJECTED,
+        /**
+         * The code is valid but was already used
+         */
+        REPLAYED,
+        /**
+         * The code is not a number of the expected format
+         */
+        MALFORMED,
+        /**
+         * The account ran out of attempts, the code was not checked
+         */
+        THROTTLED
+    }
+
+    /**
+     * Offset reported when no code matched
+     */
+    int NO_MATCH = Integer.MIN_VALUE;
+
+    /**
+     * Ignores everything. Verifiers using it skip the {@link System#nanoTime()} calls timing the
+     * verification, they still read their clock to check the code
+     */
+    VerificationListener NONE = new VerificationListener() {
+        @Override
+        public void onVerification(Outcome outcome, int offset, int candidates, long nanos) {
+        }
+    };
+
+    /**
+     * @param outcome    Result of the verification
+     * @param offset     How many time steps ago the matched code was generated, negative if it is
+     *                   ahead of the verifier's clock, or {@link #NO_MATCH}
+     * @param candidates Number of codes computed, 0 when all of them came from a cache
+     * @param nanos      Duration of the verification
+     */
+    void onVerification(Outcome outcome, int offset, int candidates, long nanos);
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts verifications in striped counters, so concurrent verifications don't contend.
+ * <p/>
+ * Matched offsets show how far behind the devices are, a growing share of non zero offsets
+ * hints at skewed clocks. Latencies are kept in a histogram of power of two buckets, bucket
+ * <code>i</code> counting durations from <code>2^i</code> to <code>2^(i+1)</code> nanoseconds.
+ * Reads are not an atomic snapshot of all counters.
+ */
+public class VerificationMetrics implements VerificationListener {
+
+    /**
+     * Offsets beyond this one, in either direction, share the outermost buckets
+     */
+    public static final int MAX_OFFSET = 15;
+
+    private final LongAdder[] outcomes = adders(Outcome.values().length);
+    private final LongAdder[] offsets = adders(2 * MAX_OFFSET + 1);
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder[] latencies = adders(64);
+
+    @Override
+    public void onVerification(Outcome outcome, int offset, int candidates, long nanos) {
+        outcomes[outcome.ordinal()].increment();
+        if (offset != NO_MATCH) {
+            offsets[Math.max(-MAX_OFFSET, Math.min(offset, MAX_OFFSET)) + MAX_OFFSET].increment();
+        }
+        this.candidates.add(candidates);
+        latencies[63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+    }
+
+    /**
+     * @return Number of verifications
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder outcome : outcomes) {
+            count += outcome.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @param outcome Result of the verification
+     * @return Number of verifications with this result
+     */
+    public long getCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @param offset Time steps, negative when the code was early, up to {@link #MAX_OFFSET}
+     *               either way which includes every larger offset
+     * @return Number of codes matched this many time steps ago, replayed ones included
+     */
+    public long getOffsetCount(int offset) {
+        if (offset < -MAX_OFFSET || offset > MAX_OFFSET) {
+            throw new IllegalArgumentException("Offset must be between " + -MAX_OFFSET + " and " + MAX_OFFSET);
+        }
+        return offsets[offset + MAX_OFFSET].sum();
+    }
+
+    /**
+     * @return Total number of codes computed, i.e. HMACs or digests
+     */
+    public long getCandidates() {
+        return candidates.sum();
+    }
+
+    /**
+     * @return Latency histogram, see the class description
+     */
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[latencies.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latencies[i].sum();
+        }
+        return histogram;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return Upper bound in nanoseconds of the bucket holding the percentile, 0 without verifications
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i >= 62 ? Long.MAX_VALUE : 1L << (i + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Sets every counter back to zero
+     */
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][]{outcomes, offsets, latencies}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+        candidates.reset();
+    }
+
+    private static LongAdder[] adders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -18,10 +18,7 @@
 
 package org.jboss.aerogear.security.otp.api;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Locale;
 
 /**
  * Encodes arbitrary byte arrays as case-insensitive base-32 strings.
@@ -41,8 +38,6 @@ public class Base32 {
 
     private static final int SECRET_SIZE = 10;
 
-    private static final SecureRandom RANDOM = new SecureRandom();
-
     private static final Base32 INSTANCE =
             new Base32("ABCDEFGHIJKLMNOPQRSTUVWXYZ234567"); // RFC 4648/3548
 
@@ -55,54 +50,100 @@ public class Base32 {
     private char[] DIGITS;
     private int MASK;
     private int SHIFT;
-    private HashMap<Character, Integer> CHAR_MAP;
+    private byte[] DECODE_TABLE;
 
     static final String SEPARATOR = "-";
 
+    // Markers in the decode table, symbols map to their 5 bit value
+    static final byte ILLEGAL = -1;
+    static final byte SKIP = -2;
+    static final byte PADDING = -3;
+
     protected Base32(String alphabet) {
         this.ALPHABET = alphabet;
         DIGITS = ALPHABET.toCharArray();
         MASK = DIGITS.length - 1;
         SHIFT = Integer.numberOfTrailingZeros(DIGITS.length);
-        CHAR_MAP = new HashMap<Character, Integer>();
+        DECODE_TABLE = new byte[256];
+        Arrays.fill(DECODE_TABLE, ILLEGAL);
+        // Whitespace and separators are ignored anywhere, padding only at the end
+        for (int c = 0; c <= ' '; c++) {
+            DECODE_TABLE[c] = SKIP;
+        }
+        DECODE_TABLE[SEPARATOR.charAt(0)] = SKIP;
+        DECODE_TABLE['='] = PADDING;
         for (int i = 0; i < DIGITS.length; i++) {
-            CHAR_MAP.put(DIGITS[i], i);
+            // Case insensitive
+            DECODE_TABLE[Character.toUpperCase(DIGITS[i])] = (byte) i;
+            DECODE_TABLE[Character.toLowerCase(DIGITS[i])] = (byte) i;
         }
     }
 
+    /**
+     * @return A new streaming encoder, not thread-safe
+     */
+    public static Base32Encoder newEncoder() {
+        return new Base32Encoder(getInstance());
+    }
+
+    /**
+     * @return A new streaming decoder, not thread-safe
+     */
+    public static Base32Decoder newDecoder() {
+        return new Base32Decoder(getInstance());
+    }
+
     public static byte[] decode(String encoded) throws DecodingException {
         return getInstance().decodeInternal(encoded);
     }
 
+    /**
+     * Decodes into a caller supplied buffer, without intermediate strings or arrays
+     *
+     * @param encoded Base32 text, separators, whitespace and trailing padding are ignored
+     * @param out     Output buffer
+     * @param off     Offset in the output buffer
+     * @return Number of bytes written
+     * @throws DecodingException        If the text contains illegal characters
+     * @throws IllegalArgumentException If the output buffer is too small
+     */
+    public static int decode(CharSequence encoded, byte[] out, int off) throws DecodingException {
+        return getInstance().decodeInternal(encoded, out, off);
+    }
+
     protected byte[] decodeInternal(String encoded) throws DecodingException {
-        // Remove whitespace and separators
-        encoded = encoded.trim().replaceAll(SEPARATOR, "").replaceAll(" ", "");
-
-        // Remove padding. Note: the padding is used as hint to determine how many
-        // bits to decode from the last incomplete chunk (which is commented out
-        // below, so this may have been wrong to start with).
-        encoded = encoded.replaceFirst("[=]*$", "");
-
-        // Canonicalize to all upper case
-        encoded = encoded.toUpperCase(Locale.US);
-        if (encoded.length() == 0) {
-            return new byte[0];
-        }
-        int encodedLength = encoded.length();
-        int outLength = encodedLength * SHIFT / 8;
-        byte[] result = new byte[outLength];
+        // Note: the padding could be used as hint to determine how many bits to
+        // decode from the last incomplete chunk, it is ignored like the leftover bits.
+        byte[] result = new byte[symbols(encoded) * SHIFT / 8];
+        decodeInternal(encoded, result, 0);
+        return result;
+    }
+
+    protected int decodeInternal(CharSequence encoded, byte[] out, int off) throws DecodingException {
         int buffer = 0;
-        int next = 0;
+        int next = off;
         int bitsLeft = 0;
-        for (char c : encoded.toCharArray()) {
-            if (!CHAR_MAP.containsKey(c)) {
-                throw new DecodingException("Illegal character: " + c);
+        boolean padded = false;
+        for (int i = 0, length = encoded.length(); i < length; i++) {
+            int value = lookup(encoded.charAt(i));
+            if (value == SKIP) {
+                continue;
+            }
+            if (value == PADDING) {
+                padded = true;
+                continue;
+            }
+            if (padded) {
+                throw new DecodingException("Illegal character: =");
             }
             buffer <<= SHIFT;
-            buffer |= CHAR_MAP.get(c) & MASK;
+            buffer |= value & MASK;
             bitsLeft += SHIFT;
             if (bitsLeft >= 8) {
-                result[next++] = (byte) (buffer >> (bitsLeft - 8));
+                if (next >= out.length) {
+                    throw new IllegalArgumentException("Output buffer too small");
+                }
+                out[next++] = (byte) (buffer >> (bitsLeft - 8));
                 bitsLeft -= 8;
             }
         }
@@ -111,34 +152,88 @@ public class Base32 {
         // if (next != outLength || bitsLeft >= SHIFT) {
         //  throw new DecodingException("Bits left: " + bitsLeft);
         // }
-        return result;
+        return next - off;
+    }
+
+    /**
+     * @return Number of symbols, i.e. characters without separators and padding
+     */
+    private int symbols(CharSequence encoded) throws DecodingException {
+        int symbols = 0;
+        for (int i = 0, length = encoded.length(); i < length; i++) {
+            if (lookup(encoded.charAt(i)) >= 0) {
+                symbols++;
+            }
+        }
+        return symbols;
+    }
+
+    int getShift() {
+        return SHIFT;
+    }
+
+    char digit(int index) {
+        return DIGITS[index & MASK];
+    }
+
+    int lookup(char c) throws DecodingException {
+        int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : ILLEGAL;
+        if (value == ILLEGAL) {
+            throw new DecodingException("Illegal character: " + c);
+        }
+        return value;
     }
 
     public static String encode(byte[] data) {
         return getInstance().encodeInternal(data);
     }
 
+    /**
+     * Encodes into a character array, e.g. to be wiped after use unlike a String
+     *
+     * @param data Bytes to encode
+     * @return Base32 characters, without padding
+     */
+    public static char[] encodeToChars(byte[] data) {
+        return getInstance().encodeToCharsInternal(data);
+    }
+
     protected String encodeInternal(byte[] data) {
-        if (data.length == 0) {
-            return "";
-        }
+        return new String(encodeToCharsInternal(data));
+    }
+
+    protected char[] encodeToCharsInternal(byte[] data) {
+        char[] result = new char[encodedLength(data.length)];
+        encodeInternal(data, 0, data.length, result, 0);
+        return result;
+    }
 
+    int encodedLength(int length) {
         // SHIFT is the number of bits per output character, so the length of the
         // output is the length of the input multiplied by 8/SHIFT, rounded up.
-        if (data.length >= (1 << 28)) {
+        if (length >= (1 << 28)) {
             // The computation below will fail, so don't do it.
             throw new IllegalArgumentException();
         }
+        return (length * 8 + SHIFT - 1) / SHIFT;
+    }
 
-        int outputLength = (data.length * 8 + SHIFT - 1) / SHIFT;
-        StringBuilder result = new StringBuilder(outputLength);
-
-        int buffer = data[0];
-        int next = 1;
+    /**
+     * Encodes a region of <code>data</code> into <code>out</code>, which must have room
+     * for {@link #encodedLength(int)} characters
+     */
+    void encodeInternal(byte[] data, int off, int length, char[] out, int outOff) {
+        if (length == 0) {
+            return;
+        }
+        int end = off + length;
+        int buffer = data[off];
+        int next = off + 1;
         int bitsLeft = 8;
-        while (bitsLeft > 0 || next < data.length) {
+        int position = outOff;
+        while (bitsLeft > 0 || next < end) {
             if (bitsLeft < SHIFT) {
-                if (next < data.length) {
+                if (next < end) {
                     buffer <<= 8;
                     buffer |= (data[next++] & 0xff);
                     bitsLeft += 8;
@@ -150,9 +245,8 @@ public class Base32 {
             }
             int index = MASK & (buffer >> (bitsLeft - SHIFT));
             bitsLeft -= SHIFT;
-            result.append(DIGITS[index]);
+            out[position++] = DIGITS[index];
         }
-        return result.toString();
     }
 
     public static class DecodingException extends Exception {
@@ -165,14 +259,12 @@ public class Base32 {
 
     public static String random() {
 
-        // Allocating the buffer
-        byte[] buffer = new byte[SECRET_SIZE];
-
-        // Filling the buffer with random numbers.
-        RANDOM.nextBytes(buffer);
+        // Filling the buffer with random numbers from the generator of this thread,
+        // see Secrets for bulk generation
+        byte[] secretKey = new byte[SECRET_SIZE];
+        Secrets.nextBytes(secretKey);
 
-        // Getting the key and converting it to Base32
-        byte[] secretKey = Arrays.copyOf(buffer, SECRET_SIZE);
+        // Converting the key to Base32
         return encode(secretKey);
     }
 }
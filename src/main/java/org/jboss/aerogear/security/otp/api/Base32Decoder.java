@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streaming Base32 decoder, keeps the pending bits across buffer boundaries
+ * so input may be split anywhere.
+ * <p/>
+ * A line feed ends a record, e.g. one secret per line, and drops its leftover
+ * bits like {@link Base32#decode(String)}. Other whitespace, separators and
+ * trailing padding are ignored.
+ * <p/>
+ * Instances are stateful and not thread-safe.
+ */
+public final class Base32Decoder {
+
+    public enum Result {
+        /**
+         * The input was consumed
+         */
+        UNDERFLOW,
+        /**
+         * The output is full
+         */
+        OVERFLOW,
+        /**
+         * A line feed was consumed, the record is complete
+         */
+        END_OF_RECORD
+    }
+
+    private final Base32 base32;
+    private final int shift;
+    private int buffer;
+    private int bitsLeft;
+    private boolean padded;
+
+    Base32Decoder(Base32 base32) {
+        this.base32 = base32;
+        this.shift = base32.getShift();
+    }
+
+    /**
+     * Decodes as much of the input as fits in the output, up to the end of the record.
+     * <p/>
+     * On error the input is positioned at the offending character.
+     *
+     * @param in  Base32 text
+     * @param out Destination for the decoded bytes
+     * @return Why decoding stopped
+     * @throws Base32.DecodingException If the text contains illegal characters
+     */
+    public Result decode(CharBuffer in, ByteBuffer out) throws Base32.DecodingException {
+        for (; ; ) {
+            if (bitsLeft >= 8) {
+                if (!out.hasRemaining()) {
+                    return Result.OVERFLOW;
+                }
+                out.put((byte) (buffer >> (bitsLeft - 8)));
+                bitsLeft -= 8;
+                continue;
+            }
+            if (!in.hasRemaining()) {
+                return Result.UNDERFLOW;
+            }
+            char c = in.get(in.position());
+            if (c == '\n') {
+                in.position(in.position() + 1);
+                reset();
+                return Result.END_OF_RECORD;
+            }
+            int value = base32.lookup(c);
+            if (value >= 0) {
+                if (padded) {
+                    throw new Base32.DecodingException("Illegal character: =");
+                }
+                buffer = (buffer << shift) | value;
+                bitsLeft += shift;
+            } else if (value == Base32.PADDING) {
+                padded = true;
+            }
+            in.position(in.position() + 1);
+        }
+    }
+
+    /**
+     * Decodes as much of the input as fits in the output, up to the end of the record.
+     * The input is read as ASCII bytes.
+     * <p/>
+     * On error the input is positioned at the offending character.
+     *
+     * @param in  Base32 text as ASCII bytes
+     * @param out Destination for the decoded bytes
+     * @return Why decoding stopped
+     * @throws Base32.DecodingException If the text contains illegal characters
+     */
+    public Result decode(ByteBuffer in, ByteBuffer out) throws Base32.DecodingException {
+        if (in.hasArray() && out.hasArray()) {
+            return decodeArray(in, out);
+        }
+        for (; ; ) {
+            if (bitsLeft >= 8) {
+                if (!out.hasRemaining()) {
+                    return Result.OVERFLOW;
+                }
+                out.put((byte) (buffer >> (bitsLeft - 8)));
+                bitsLeft -= 8;
+                continue;
+            }
+            if (!in.hasRemaining()) {
+                return Result.UNDERFLOW;
+            }
+            char c = (char) (in.get(in.position()) & 0xff);
+            if (c == '\n') {
+                in.position(in.position() + 1);
+                reset();
+                return Result.END_OF_RECORD;
+            }
+            int value = base32.lookup(c);
+            if (value >= 0) {
+                if (padded) {
+                    throw new Base32.DecodingException("Illegal character: =");
+                }
+                buffer = (buffer << shift) | value;
+                bitsLeft += shift;
+            } else if (value == Base32.PADDING) {
+                padded = true;
+            }
+            in.position(in.position() + 1);
+        }
+    }
+
+    private Result decodeArray(ByteBuffer in, ByteBuffer out) throws Base32.DecodingException {
+        byte[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        int sl = in.arrayOffset() + in.limit();
+        byte[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        int dl = out.arrayOffset() + out.limit();
+        int buffer = this.buffer;
+        int bitsLeft = this.bitsLeft;
+        try {
+            for (; ; ) {
+                if (bitsLeft >= 8) {
+                    if (dp == dl) {
+                        return Result.OVERFLOW;
+                    }
+                    dst[dp++] = (byte) (buffer >> (bitsLeft - 8));
+                    bitsLeft -= 8;
+                    continue;
+                }
+                if (sp == sl) {
+                    return Result.UNDERFLOW;
+                }
+                char c = (char) (src[sp] & 0xff);
+                if (c == '\n') {
+                    sp++;
+                    buffer = 0;
+                    bitsLeft = 0;
+                    padded = false;
+                    return Result.END_OF_RECORD;
+                }
+                int value = base32.lookup(c);
+                if (value >= 0) {
+                    if (padded) {
+                        throw new Base32.DecodingException("Illegal character: =");
+                    }
+                    buffer = (buffer << shift) | value;
+                    bitsLeft += shift;
+                } else if (value == Base32.PADDING) {
+                    padded = true;
+                }
+                sp++;
+            }
+        } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+            this.buffer = buffer;
+            this.bitsLeft = bitsLeft;
+        }
+    }
+
+    /**
+     * Drops the pending bits of an unfinished record
+     */
+    public void reset() {
+        buffer = 0;
+        bitsLeft = 0;
+        padded = false;
+    }
+
+    /**
+     * Decodes a whole stream of ASCII text, one record per line. Empty lines are skipped.
+     *
+     * @param in           Base32 lines
+     * @param out          Destination for the decoded bytes, records are concatenated
+     * @param recordLength Expected bytes per record, or 0 to accept any length
+     * @return Number of records decoded
+     * @throws IOException              If reading or writing fails
+     * @throws Base32.DecodingException If the text is illegal or a record has the wrong length
+     */
+    public long decode(ReadableByteChannel in, WritableByteChannel out, int recordLength)
+            throws IOException, Base32.DecodingException {
+        if (recordLength < 0) {
+            throw new IllegalArgumentException("Record length must not be negative");
+        }
+        reset();
+        ByteBuffer ascii = ByteBuffer.allocate(Base32Encoder.BUFFER_SIZE);
+        ByteBuffer raw = ByteBuffer.allocate(Base32Encoder.BUFFER_SIZE);
+        long records = 0;
+        long recordBytes = 0;
+        boolean eof = false;
+        while (!eof) {
+            eof = in.read(ascii) < 0;
+            ascii.flip();
+            for (; ; ) {
+                int start = raw.position();
+                Result result = decode(ascii, raw);
+                recordBytes += raw.position() - start;
+                if (result == Result.OVERFLOW) {
+                    drain(raw, out);
+                } else if (result == Result.END_OF_RECORD || eof) {
+                    if (recordBytes > 0) {
+                        if (recordLength > 0 && recordBytes != recordLength) {
+                            throw new Base32.DecodingException("Record " + (records + 1) + " has " + recordBytes
+                                    + " bytes, expected " + recordLength);
+                        }
+                        records++;
+                    }
+                    recordBytes = 0;
+                    if (result == Result.UNDERFLOW) {
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            }
+            ascii.compact();
+        }
+        drain(raw, out);
+        reset();
+        return records;
+    }
+
+    private static void drain(ByteBuffer raw, WritableByteChannel out) throws IOException {
+        raw.flip();
+        while (raw.hasRemaining()) {
+            out.write(raw);
+        }
+        raw.clear();
+    }
+}
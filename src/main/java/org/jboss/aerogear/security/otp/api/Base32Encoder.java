@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streaming Base32 encoder, keeps the pending bits across buffer boundaries
+ * so input may be split anywhere.
+ * <p/>
+ * Records, e.g. one secret per line, are encoded independently: the last
+ * incomplete symbol of a record is emitted when it ends, without padding,
+ * exactly like {@link Base32#encode(byte[])}.
+ * <p/>
+ * Instances are stateful and not thread-safe.
+ */
+public final class Base32Encoder {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private final Base32 base32;
+    private final int shift;
+    private int buffer;
+    private int bitsLeft;
+
+    Base32Encoder(Base32 base32) {
+        this.base32 = base32;
+        this.shift = base32.getShift();
+    }
+
+    /**
+     * Encodes as much of the input as fits in the output.
+     *
+     * @param in          Bytes to encode
+     * @param out         Destination for the Base32 characters
+     * @param endOfRecord Whether the input ends the current record
+     * @return true if the input was consumed, and the record completed when
+     * <code>endOfRecord</code> is set, false if the output is full
+     */
+    public boolean encode(ByteBuffer in, CharBuffer out, boolean endOfRecord) {
+        for (; ; ) {
+            if (bitsLeft >= shift) {
+                if (!out.hasRemaining()) {
+                    return false;
+                }
+                out.put(base32.digit(buffer >> (bitsLeft - shift)));
+                bitsLeft -= shift;
+            } else if (in.hasRemaining()) {
+                buffer = (buffer << 8) | (in.get() & 0xff);
+                bitsLeft += 8;
+            } else if (endOfRecord && bitsLeft > 0) {
+                if (!out.hasRemaining()) {
+                    return false;
+                }
+                out.put(base32.digit(buffer << (shift - bitsLeft)));
+                bitsLeft = 0;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Encodes as much of the input as fits in the output, as ASCII bytes.
+     *
+     * @param in          Bytes to encode
+     * @param out         Destination for the Base32 characters
+     * @param endOfRecord Whether the input ends the current record
+     * @return true if the input was consumed, and the record completed when
+     * <code>endOfRecord</code> is set, false if the output is full
+     */
+    public boolean encode(ByteBuffer in, ByteBuffer out, boolean endOfRecord) {
+        if (in.hasArray() && out.hasArray()) {
+            return encodeArray(in, out, endOfRecord);
+        }
+        for (; ; ) {
+            if (bitsLeft >= shift) {
+                if (!out.hasRemaining()) {
+                    return false;
+                }
+                out.put((byte) base32.digit(buffer >> (bitsLeft - shift)));
+                bitsLeft -= shift;
+            } else if (in.hasRemaining()) {
+                buffer = (buffer << 8) | (in.get() & 0xff);
+                bitsLeft += 8;
+            } else if (endOfRecord && bitsLeft > 0) {
+                if (!out.hasRemaining()) {
+                    return false;
+                }
+                out.put((byte) base32.digit(buffer << (shift - bitsLeft)));
+                bitsLeft = 0;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private boolean encodeArray(ByteBuffer in, ByteBuffer out, boolean endOfRecord) {
+        byte[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        int sl = in.arrayOffset() + in.limit();
+        byte[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        int dl = out.arrayOffset() + out.limit();
+        int buffer = this.buffer;
+        int bitsLeft = this.bitsLeft;
+        try {
+            for (; ; ) {
+                if (bitsLeft >= shift) {
+                    if (dp == dl) {
+                        return false;
+                    }
+                    dst[dp++] = (byte) base32.digit(buffer >> (bitsLeft - shift));
+                    bitsLeft -= shift;
+                } else if (sp < sl) {
+                    buffer = (buffer << 8) | (src[sp++] & 0xff);
+                    bitsLeft += 8;
+                } else if (endOfRecord && bitsLeft > 0) {
+                    if (dp == dl) {
+                        return false;
+                    }
+                    dst[dp++] = (byte) base32.digit(buffer << (shift - bitsLeft));
+                    bitsLeft = 0;
+                } else {
+                    return true;
+                }
+            }
+        } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+            this.buffer = buffer;
+            this.bitsLeft = bitsLeft;
+        }
+    }
+
+    /**
+     * Drops the pending bits of an unfinished record
+     */
+    public void reset() {
+        buffer = 0;
+        bitsLeft = 0;
+    }
+
+    /**
+     * Encodes a whole stream, writing one line of ASCII text per record.
+     *
+     * @param in           Raw bytes
+     * @param out          Destination for the Base32 lines
+     * @param recordLength Bytes per record, or 0 to encode the stream as a single record
+     * @return Number of records written
+     * @throws IOException If reading or writing fails
+     */
+    public long encode(ReadableByteChannel in, WritableByteChannel out, int recordLength) throws IOException {
+        if (recordLength < 0) {
+            throw new IllegalArgumentException("Record length must not be negative");
+        }
+        reset();
+        ByteBuffer raw = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer text = ByteBuffer.allocate(BUFFER_SIZE * 2);
+        long records = 0;
+        int pending = 0;
+        boolean eof = false;
+        while (!eof) {
+            eof = in.read(raw) < 0;
+            raw.flip();
+            while (raw.hasRemaining() || (eof && pending > 0)) {
+                int limit = raw.limit();
+                boolean endOfRecord = eof;
+                if (recordLength > 0 && raw.remaining() >= recordLength - pending) {
+                    raw.limit(raw.position() + recordLength - pending);
+                    endOfRecord = true;
+                }
+                int start = raw.position();
+                while (!encode(raw, text, endOfRecord)) {
+                    drain(text, out);
+                }
+                pending += raw.position() - start;
+                raw.limit(limit);
+                if (endOfRecord) {
+                    if (!text.hasRemaining()) {
+                        drain(text, out);
+                    }
+                    text.put((byte) '\n');
+                    records++;
+                    pending = 0;
+                }
+            }
+            raw.clear();
+        }
+        drain(text, out);
+        return records;
+    }
+
+    private static void drain(ByteBuffer text, WritableByteChannel out) throws IOException {
+        text.flip();
+        while (text.hasRemaining()) {
+            out.write(text);
+        }
+        text.clear();
+    }
+}
@@ -17,47 +17,66 @@
 
 package org.jboss.aerogear.security.otp.api;
 
-import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.TimeZone;
-
+/**
+ * Splits the time of a {@link TimeSource} into intervals.
+ * <p/>
+ * Clocks are immutable and thread-safe, a single instance can serve every {@link
+ * org.jboss.aerogear.security.otp.Totp} and {@link org.jboss.aerogear.security.otp.Motp}
+ * of the application, see {@link #getDefault()}.
+ */
 public class Clock {
 
+    private static final Clock DEFAULT = new Clock();
+
     protected final int interval;
-    private Calendar calendar;
+    private final TimeSource timeSource;
 
     public Clock() {
-        interval = 30;
-        calendar = GregorianCalendar.getInstance(TimeZone.getTimeZone("UTC"));
+        this(30);
     }
 
     public Clock(int interval) {
+        this(interval, TimeSource.SYSTEM);
+    }
+
+    public Clock(int interval, TimeSource timeSource) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
         this.interval = interval;
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * @return Clock with 30 seconds intervals on the system time, shared by the whole JVM
+     */
+    public static Clock getDefault() {
+        return DEFAULT;
+    }
+
+    public int getInterval() {
+        return interval;
     }
-    
-    public long getCurrentSeconds(){
-    	return calendar.getTimeInMillis() / 1000;
+
+    public long getCurrentSeconds() {
+        return timeSource.getCurrentSeconds();
     }
 
     public long getCurrentInterval() {
         return getCurrentSeconds() / interval;
     }
-    
-    public static class ExactClock extends Clock{
-		public ExactClock() {
-			super();
-		}
-
-		public ExactClock(int interval) {
-			super(interval);
-		}
-    	
-	    public long getCurrentSeconds(){
-	    	return System.currentTimeMillis() / 1000;
-	    }
-
-	    public long getCurrentInterval() {
-	        return getCurrentSeconds() / interval;
-	    }
+
+    /**
+     * @deprecated {@link Clock} reads the current time on every call as well
+     */
+    @Deprecated
+    public static class ExactClock extends Clock {
+        public ExactClock() {
+            super();
+        }
+
+        public ExactClock(int interval) {
+            super(interval);
+        }
     }
 }
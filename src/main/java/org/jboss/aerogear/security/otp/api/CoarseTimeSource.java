@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+/**
+ * {@link TimeSource} reading a cached epoch second, refreshed by a single daemon thread.
+ * <p/>
+ * Reading the time becomes a volatile read, which helps on hosts where
+ * {@link System#currentTimeMillis()} is slow, e.g. virtual machines without a fast clock source.
+ * The time can lag behind by up to one refresh period.
+ */
+public class CoarseTimeSource implements TimeSource {
+
+    private static final long REFRESH_MILLIS = 50;
+
+    private volatile long seconds = System.currentTimeMillis() / 1000;
+
+    private CoarseTimeSource() {
+        Thread ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    seconds = System.currentTimeMillis() / 1000;
+                    try {
+                        Thread.sleep(REFRESH_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }, "aerogear-otp-time");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * @return The shared instance, its ticker thread is started on first use
+     */
+    public static TimeSource getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public long getCurrentSeconds() {
+        return seconds;
+    }
+
+    private static class Holder {
+        private static final CoarseTimeSource INSTANCE = new CoarseTimeSource();
+    }
+}
@@ -17,16 +17,145 @@
 
 package org.jboss.aerogear.security.otp.api;
 
+/**
+ * Length of the codes, with a codec that neither allocates beyond the result nor throws
+ */
 public enum Digits {
-    SIX(1000000), SEVEN(10000000), EIGHT(100000000);
+    SIX(1000000, 0), SEVEN(10000000, 1), EIGHT(100000000, 2);
+
+    // Two digits at a time, the tens and ones of 0..99
+    private static final char[] TENS = new char[100];
+    private static final char[] ONES = new char[100];
+
+    private static final Digits[] BY_CODE = new Digits[3];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            TENS[i] = (char) ('0' + i / 10);
+            ONES[i] = (char) ('0' + i % 10);
+        }
+        for (Digits digits : values()) {
+            BY_CODE[digits.code] = digits;
+        }
+    }
 
     private int digits;
+    private final int length;
+    private final int code;
 
-    Digits(int digits) {
+    Digits(int digits, int code) {
         this.digits = digits;
+        this.length = String.valueOf(digits).length() - 1;
+        this.code = code;
+    }
+
+    /**
+     * @return Code of the length in stored formats, never reused nor changed by new constants
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param code Code of a length, see {@link #getCode()}
+     * @return The length
+     * @throws IllegalArgumentException If no length has the code
+     */
+    public static Digits fromCode(int code) {
+        if (code >= 0 && code < BY_CODE.length && BY_CODE[code] != null) {
+            return BY_CODE[code];
+        }
+        throw new IllegalArgumentException("Unknown digits " + code);
     }
 
     public int getValue() {
         return digits;
     }
+
+    /**
+     * @return Number of digits of a code
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Formats a code, zero padded to the number of digits
+     *
+     * @param code Code, between 0 and {@link #getValue()} exclusive
+     * @return The formatted code
+     */
+    public String format(int code) {
+        char[] chars = new char[length];
+        format(code, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Formats a code into a buffer, zero padded to the number of digits
+     *
+     * @param code Code, between 0 and {@link #getValue()} exclusive
+     * @param out  Output buffer, with room for {@link #getLength()} characters
+     * @param off  Offset in the output buffer
+     */
+    public void format(int code, char[] out, int off) {
+        if (code < 0 || code >= digits) {
+            throw new IllegalArgumentException("Code out of range: " + code);
+        }
+        int position = off + length;
+        while (position - off >= 2) {
+            int q = code / 100;
+            int r = code - q * 100;
+            out[--position] = ONES[r];
+            out[--position] = TENS[r];
+            code = q;
+        }
+        if (position > off) {
+            out[--position] = (char) ('0' + code);
+        }
+    }
+
+    /**
+     * Parses a code, leading zeros included
+     *
+     * @param otp Code
+     * @return The code, or -1 if it is not made of exactly {@link #getLength()} decimal digits
+     */
+    public int parse(CharSequence otp) {
+        if (otp.length() != length) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = otp.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * Parses a code held in a buffer, see {@link #parse(CharSequence)}
+     *
+     * @param otp Buffer holding the code
+     * @param off Offset of the code
+     * @param len Length of the code
+     * @return The code, or -1 if it is not made of exactly {@link #getLength()} decimal digits
+     */
+    public int parse(char[] otp, int off, int len) {
+        if (len != length) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = off; i < off + len; i++) {
+            int digit = otp[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
+    }
 }
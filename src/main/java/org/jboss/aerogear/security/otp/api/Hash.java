@@ -19,12 +19,41 @@ package org.jboss.aerogear.security.otp.api;
 
 public enum Hash {
 
-    SHA1("HMACSHA1");
+    SHA1("HMACSHA1", 0), SHA256("HMACSHA256", 1), SHA512("HMACSHA512", 2);
+
+    private static final Hash[] BY_CODE = new Hash[3];
+
+    static {
+        for (Hash hash : values()) {
+            BY_CODE[hash.code] = hash;
+        }
+    }
 
     private String hash;
+    private final int code;
 
-    Hash(String hash) {
+    Hash(String hash, int code) {
         this.hash = hash;
+        this.code = code;
+    }
+
+    /**
+     * @return Code of the hash in stored formats, never reused nor changed by new constants
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param code Code of a hash, see {@link #getCode()}
+     * @return The hash
+     * @throws IllegalArgumentException If no hash has the code
+     */
+    public static Hash fromCode(int code) {
+        if (code >= 0 && code < BY_CODE.length && BY_CODE[code] != null) {
+            return BY_CODE[code];
+        }
+        throw new IllegalArgumentException("Unknown hash " + code);
     }
 
     @Override
@@ -17,9 +17,6 @@
 
 package org.jboss.aerogear.security.otp.api;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -37,10 +34,82 @@ public class Hmac {
     }
 
     public byte[] digest() throws NoSuchAlgorithmException, InvalidKeyException {
-        byte[] challenge = ByteBuffer.allocate(8).putLong(currentInterval).array();
-        Mac mac = Mac.getInstance(hash.toString());
-        SecretKeySpec macKey = new SecretKeySpec(secret, ALGORITHM);
-        mac.init(macKey);
-        return mac.doFinal(challenge);
+        return keyed(hash, secret).digest(currentInterval);
+    }
+
+    /**
+     * Keys an HMAC engine once, to be reused for several counters of the same secret.
+     * <p/>
+     * Uses pure Java engines with precomputed key pad states, see {@link #keyedJce(Hash, byte[])} for the JCE provider.
+     *
+     * @param hash   Hash algorithm
+     * @param secret Shared secret
+     * @return Keyed HMAC engine
+     */
+    public static KeyedHmac keyed(Hash hash, byte[] secret) throws NoSuchAlgorithmException, InvalidKeyException {
+        switch (hash) {
+            case SHA1:
+                return new Sha1Hmac(secret);
+            case SHA256:
+                return new Sha256Hmac(secret);
+            case SHA512:
+                return new Sha512Hmac(secret);
+            default:
+                return keyedJce(hash, secret);
+        }
+    }
+
+    /**
+     * Restores an HMAC engine from the pad states of {@link KeyedHmac#exportState(byte[], int)},
+     * skipping the key schedule
+     *
+     * @param hash  Hash algorithm the state was exported for
+     * @param state Buffer holding the state
+     * @param off   Offset of the state
+     * @return Keyed HMAC engine
+     */
+    public static KeyedHmac keyedState(Hash hash, byte[] state, int off) {
+        int length = getStateLength(hash);
+        if (off < 0 || state.length - off < length) {
+            throw new IllegalArgumentException("Expected " + length + " bytes of " + hash + " state");
+        }
+        switch (hash) {
+            case SHA1:
+                return new Sha1Hmac(state, off);
+            case SHA256:
+                return new Sha256Hmac(state, off);
+            case SHA512:
+                return new Sha512Hmac(state, off);
+            default:
+                throw new IllegalArgumentException("No exportable state for " + hash);
+        }
+    }
+
+    /**
+     * @param hash Hash algorithm
+     * @return Length of the exported pad states, twice the MAC length
+     */
+    public static int getStateLength(Hash hash) {
+        switch (hash) {
+            case SHA1:
+                return 2 * 20;
+            case SHA256:
+                return 2 * 32;
+            case SHA512:
+                return 2 * 64;
+            default:
+                throw new IllegalArgumentException("No exportable state for " + hash);
+        }
+    }
+
+    /**
+     * Keys an HMAC engine backed by the JCE provider, e.g. to use a certified provider
+     *
+     * @param hash   Hash algorithm
+     * @param secret Shared secret
+     * @return Keyed HMAC engine
+     */
+    public static KeyedHmac keyedJce(Hash hash, byte[] secret) throws NoSuchAlgorithmException, InvalidKeyException {
+        return new JceHmac(hash, secret);
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@link KeyedHmac} backed by the JCE provider of the {@link Hash}.
+ * <p/>
+ * {@link Mac} instances are pooled per thread, one for each {@link Hash}. The provider
+ * lookup is paid once per thread and the key schedule only when the thread switches to
+ * another secret.
+ */
+class JceHmac extends KeyedHmac {
+
+    private static final ThreadLocal<Pool> POOL = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    private final SecretKeySpec key;
+
+    JceHmac(Hash hash, byte[] secret) throws NoSuchAlgorithmException, InvalidKeyException {
+        super(hash);
+        this.key = new SecretKeySpec(secret, Hmac.ALGORITHM);
+        // Fail fast on unknown algorithms and unusable keys
+        mac();
+    }
+
+    @Override
+    public int digest(long counter, byte[] out, int off) {
+        Mac mac = keyedMac();
+        byte[] challenge = POOL.get().challenge;
+        for (int i = 7; i >= 0; i--) {
+            challenge[i] = (byte) counter;
+            counter >>>= 8;
+        }
+        mac.update(challenge);
+        try {
+            mac.doFinal(out, off);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return mac.getMacLength();
+    }
+
+    private Mac keyedMac() {
+        try {
+            return mac();
+        } catch (NoSuchAlgorithmException e) {
+            // Already resolved once in the constructor
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private Mac mac() throws NoSuchAlgorithmException, InvalidKeyException {
+        Pool pool = POOL.get();
+        int index = getHash().ordinal();
+        Mac mac = pool.macs[index];
+        if (mac == null) {
+            mac = Mac.getInstance(getHash().toString());
+            pool.macs[index] = mac;
+        }
+        if (pool.owners[index] != this) {
+            pool.owners[index] = null;
+            mac.init(key);
+            pool.owners[index] = this;
+        }
+        return mac;
+    }
+
+    private static class Pool {
+        private final Mac[] macs = new Mac[Hash.values().length];
+        private final JceHmac[] owners = new JceHmac[Hash.values().length];
+        private final byte[] challenge = new byte[8];
+    }
+}
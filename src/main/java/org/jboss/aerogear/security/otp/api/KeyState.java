@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+/**
+ * Storage format of keyed HMAC engines, so a stored secret verifies codes without being decoded
+ * or keyed again.
+ * <p/>
+ * A key state is a version byte, the code of the {@link Hash} and the hash states after the
+ * inner and outer key pads, see {@link KeyedHmac#exportState(byte[], int)}. Each candidate code
+ * then costs two compression function calls, even for the first verification of a secret.
+ * <p/>
+ * Key states are as secret as the keys they were computed from, store them as such.
+ */
+public final class KeyState {
+
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2;
+
+    private KeyState() {
+    }
+
+    /**
+     * @param hash Hash algorithm
+     * @return Length of the key state of a secret for the hash
+     */
+    public static int length(Hash hash) {
+        return HEADER_SIZE + Hmac.getStateLength(hash);
+    }
+
+    /**
+     * @param hmac Keyed engine, one of the pure Java ones of {@link Hmac#keyed(Hash, byte[])}
+     * @return Key state of the engine
+     * @throws IllegalArgumentException If the engine has no {@link KeyedHmac#hasExportableState() exportable
+     *                                  state}
+     */
+    public static byte[] encode(KeyedHmac hmac) {
+        byte[] out = new byte[length(hmac.getHash())];
+        write(hmac, out, 0);
+        return out;
+    }
+
+    /**
+     * @param hmac Keyed engine, one of the pure Java ones of {@link Hmac#keyed(Hash, byte[])}
+     * @param out  Output buffer
+     * @param off  Offset in the output buffer
+     * @return Number of bytes written, see {@link #length(Hash)}
+     * @throws IllegalArgumentException If the engine has no {@link KeyedHmac#hasExportableState() exportable
+     *                                  state} or the buffer is too small
+     */
+    public static int write(KeyedHmac hmac, byte[] out, int off) {
+        if (!hmac.hasExportableState()) {
+            throw new IllegalArgumentException("No exportable state for " + hmac.getClass().getSimpleName());
+        }
+        Hash hash = hmac.getHash();
+        if (off < 0 || out.length - off < length(hash)) {
+            throw new IllegalArgumentException("Output buffer too small");
+        }
+        out[off] = VERSION;
+        out[off + 1] = (byte) hash.getCode();
+        return HEADER_SIZE + hmac.exportState(out, off + HEADER_SIZE);
+    }
+
+    /**
+     * @param in Key state
+     * @return Engine keyed for the secret the state was computed from
+     */
+    public static KeyedHmac decode(byte[] in) {
+        return read(in, 0);
+    }
+
+    /**
+     * @param in  Buffer holding the key state
+     * @param off Offset of the key state
+     * @return Engine keyed for the secret the state was computed from
+     */
+    public static KeyedHmac read(byte[] in, int off) {
+        if (off < 0 || in.length - off < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated key state");
+        }
+        if (in[off] != VERSION) {
+            throw new IllegalArgumentException("Unsupported key state version " + in[off]);
+        }
+        return Hmac.keyedState(Hash.fromCode(in[off + 1]), in, off + HEADER_SIZE);
+    }
+}
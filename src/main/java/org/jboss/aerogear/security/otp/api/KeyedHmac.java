@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+/**
+ * HMAC engine keyed once for a shared secret, see {@link Hmac#keyed(Hash, byte[])}.
+ * <p/>
+ * Keying is paid once per secret, all the candidates of a verification then share the keyed
+ * state. Instances are immutable and can be shared between threads.
+ */
+public abstract class KeyedHmac {
+
+    private final Hash hash;
+
+    KeyedHmac(Hash hash) {
+        this.hash = hash;
+    }
+
+    public Hash getHash() {
+        return hash;
+    }
+
+    /**
+     * Computes the HMAC of the 8 byte big-endian counter
+     *
+     * @param counter Moving factor, the time step for TOTP
+     * @return HMAC
+     */
+    public byte[] digest(long counter) {
+        byte[] out = new byte[64];
+        int length = digest(counter, out, 0);
+        byte[] result = new byte[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Computes the HMAC of the 8 byte big-endian counter into a caller supplied buffer,
+     * without allocating a challenge or result array
+     *
+     * @param counter Moving factor, the time step for TOTP
+     * @param out     Output buffer
+     * @param off     Offset in the output buffer
+     * @return Number of bytes written, the MAC length of the {@link Hash}
+     */
+    public abstract int digest(long counter, byte[] out, int off);
+
+    /**
+     * @return True if {@link #exportState(byte[], int)} is supported, false for JCE engines which
+     * don't expose their state
+     */
+    public boolean hasExportableState() {
+        return false;
+    }
+
+    /**
+     * Writes the hash states after the inner and outer key pads, big-endian, to be restored with
+     * {@link Hmac#keyedState(Hash, byte[], int)} without keying again. They are as secret as the key.
+     *
+     * @param out Output buffer
+     * @param off Offset in the output buffer
+     * @return Number of bytes written, see {@link Hmac#getStateLength(Hash)}
+     * @throws IllegalStateException If the engine has no {@link #hasExportableState() exportable state}
+     */
+    public int exportState(byte[] out, int off) {
+        throw new IllegalStateException("No exportable state for " + getClass().getSimpleName());
+    }
+
+    static void readState(byte[] in, int off, int[] state) {
+        for (int i = 0; i < state.length; i++, off += 4) {
+            state[i] = (in[off] & 0xff) << 24 | (in[off + 1] & 0xff) << 16 | (in[off + 2] & 0xff) << 8
+                    | (in[off + 3] & 0xff);
+        }
+    }
+
+    static void readState(byte[] in, int off, long[] state) {
+        int[] halves = new int[2];
+        for (int i = 0; i < state.length; i++, off += 8) {
+            readState(in, off, halves);
+            state[i] = (long) halves[0] << 32 | (halves[1] & 0xffffffffL);
+        }
+    }
+
+    static int writeState(int[] state, byte[] out, int off) {
+        for (int v : state) {
+            out[off++] = (byte) (v >>> 24);
+            out[off++] = (byte) (v >>> 16);
+            out[off++] = (byte) (v >>> 8);
+            out[off++] = (byte) v;
+        }
+        return state.length * 4;
+    }
+
+    static int writeState(long[] state, byte[] out, int off) {
+        for (long v : state) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out[off++] = (byte) (v >>> shift);
+            }
+        }
+        return state.length * 8;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A batch of random shared secrets, e.g. for a bulk enrollment.
+ * <p/>
+ * Secrets are generated in parallel, each worker drawing from its own {@link SecureRandom}
+ * (DRBG when available, SHA1PRNG otherwise) instead of contending on a single generator.
+ * Raw bytes and Base32 text of all secrets are kept in two flat arrays and written in place,
+ * secret <code>i</code> starting at <code>i * getLength()</code> and
+ * <code>i * getEncodedLength()</code> respectively.
+ */
+public final class Secrets {
+
+    /**
+     * 160 bits, the length recommended by RFC 4226
+     */
+    public static final int DEFAULT_LENGTH = 20;
+
+    /**
+     * Secrets handled by a single task
+     */
+    private static final int THRESHOLD = 1024;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return newRandom();
+        }
+    };
+
+    private final int size;
+    private final int length;
+    private final int encodedLength;
+    private final byte[] bytes;
+    private final char[] chars;
+
+    private Secrets(int size, int length) {
+        this.size = size;
+        this.length = length;
+        this.encodedLength = Base32.getInstance().encodedLength(length);
+        if ((long) size * encodedLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many secrets for a single batch");
+        }
+        this.bytes = new byte[size * length];
+        this.chars = new char[size * encodedLength];
+    }
+
+    /**
+     * Generates secrets of the default length on the common pool
+     *
+     * @param size Number of secrets
+     * @return The secrets
+     */
+    public static Secrets generate(int size) {
+        return generate(size, DEFAULT_LENGTH, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates secrets on the common pool
+     *
+     * @param size   Number of secrets
+     * @param length Bytes per secret
+     * @return The secrets
+     */
+    public static Secrets generate(int size, int length) {
+        return generate(size, length, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates secrets
+     *
+     * @param size   Number of secrets
+     * @param length Bytes per secret
+     * @param pool   Pool running the generation
+     * @return The secrets
+     */
+    public static Secrets generate(int size, int length, ForkJoinPool pool) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        if (length <= 0) {
+            throw new IllegalArgumentException("Length must be positive");
+        }
+        Secrets secrets = new Secrets(size, length);
+        pool.invoke(new GenerateTask(secrets, 0, size));
+        return secrets;
+    }
+
+    /**
+     * Fills <code>bytes</code> from the generator of the calling thread
+     */
+    static void nextBytes(byte[] bytes) {
+        RANDOM.get().nextBytes(bytes);
+    }
+
+    private static SecureRandom newRandom() {
+        // Self-seeded, the JDK default would share one native generator between threads
+        for (String algorithm : new String[]{"DRBG", "SHA1PRNG"}) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // Try the next one
+            }
+        }
+        return new SecureRandom();
+    }
+
+    /**
+     * @return Number of secrets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Bytes per secret
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Base32 characters per secret
+     */
+    public int getEncodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * @param index Secret index
+     * @return A copy of the raw secret
+     */
+    public byte[] getSecret(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(bytes, index * length, (index + 1) * length);
+    }
+
+    /**
+     * @param index Secret index
+     * @return The secret encoded as Base32, as accepted by {@link org.jboss.aerogear.security.otp.Totp}
+     */
+    public String getBase32(int index) {
+        checkIndex(index);
+        return new String(chars, index * encodedLength, encodedLength);
+    }
+
+    /**
+     * @return The raw secrets back to back, not a copy
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The Base32 secrets back to back, not a copy
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Overwrites all secrets with zeros once they were handed over
+     */
+    public void clear() {
+        Arrays.fill(bytes, (byte) 0);
+        Arrays.fill(chars, '\0');
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    private static class GenerateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Secrets secrets;
+        private final int from;
+        private final int to;
+
+        GenerateTask(Secrets secrets, int from, int to) {
+            this.secrets = secrets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new GenerateTask(secrets, from, middle), new GenerateTask(secrets, middle, to));
+                return;
+            }
+            int length = secrets.length;
+            byte[] random = new byte[(to - from) * length];
+            nextBytes(random);
+            System.arraycopy(random, 0, secrets.bytes, from * length, random.length);
+            Arrays.fill(random, (byte) 0);
+            Base32 base32 = Base32.getInstance();
+            for (int i = from; i < to; i++) {
+                base32.encodeInternal(secrets.bytes, i * length, length, secrets.chars, i * secrets.encodedLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Pure Java HMAC-SHA1 specialised for the 8 byte counter of HOTP/TOTP.
+ * <p/>
+ * The SHA-1 states after the inner and outer key pads are computed once per secret. The
+ * counter and the inner hash both fit in a single padded block, so each digest costs exactly
+ * two compression function calls, working on a per-thread message schedule.
+ */
+class Sha1Hmac extends KeyedHmac {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int LENGTH = 20;
+    private static final int[] IV = {0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0};
+
+    private static final ThreadLocal<int[]> SCHEDULE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[80 + 5];
+        }
+    };
+
+    private final int[] inner = new int[5];
+    private final int[] outer = new int[5];
+
+    Sha1Hmac(byte[] secret) throws NoSuchAlgorithmException {
+        super(Hash.SHA1);
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("Empty key");
+        }
+        byte[] key = secret.length > BLOCK_SIZE ? MessageDigest.getInstance("SHA-1").digest(secret) : secret;
+        int[] w = new int[80];
+        pad(key, 0x36, w);
+        compress(IV, w, inner);
+        pad(key, 0x5c, w);
+        compress(IV, w, outer);
+    }
+
+    /**
+     * Restores the pad states written by {@link #exportState(byte[], int)}
+     */
+    Sha1Hmac(byte[] state, int off) {
+        super(Hash.SHA1);
+        readState(state, off, inner);
+        readState(state, off + LENGTH, outer);
+    }
+
+    @Override
+    public boolean hasExportableState() {
+        return true;
+    }
+
+    @Override
+    public int exportState(byte[] out, int off) {
+        return writeState(inner, out, off) + writeState(outer, out, off + LENGTH);
+    }
+
+    @Override
+    public int digest(long counter, byte[] out, int off) {
+        if (off < 0 || out.length - off < LENGTH) {
+            throw new IllegalArgumentException("Output buffer too small");
+        }
+        // w[0..79] is the message schedule, w[80..84] receives the hash
+        int[] w = SCHEDULE.get();
+
+        // Counter, padding and the length of ipad + counter in bits
+        w[0] = (int) (counter >>> 32);
+        w[1] = (int) counter;
+        w[2] = 0x80000000;
+        for (int t = 3; t < 15; t++) {
+            w[t] = 0;
+        }
+        w[15] = (BLOCK_SIZE + 8) * 8;
+        compress(inner, w, w, 80);
+
+        // Inner hash, padding and the length of opad + inner hash in bits
+        for (int t = 0; t < 5; t++) {
+            w[t] = w[80 + t];
+        }
+        w[5] = 0x80000000;
+        for (int t = 6; t < 15; t++) {
+            w[t] = 0;
+        }
+        w[15] = (BLOCK_SIZE + LENGTH) * 8;
+        compress(outer, w, w, 80);
+
+        for (int t = 0; t < 5; t++) {
+            int v = w[80 + t];
+            out[off++] = (byte) (v >>> 24);
+            out[off++] = (byte) (v >>> 16);
+            out[off++] = (byte) (v >>> 8);
+            out[off++] = (byte) v;
+        }
+        return LENGTH;
+    }
+
+    private static void pad(byte[] key, int pad, int[] w) {
+        for (int t = 0; t < 16; t++) {
+            int word = 0;
+            for (int i = 0; i < 4; i++) {
+                int index = t * 4 + i;
+                int b = index < key.length ? key[index] & 0xff : 0;
+                word = (word << 8) | (b ^ pad);
+            }
+            w[t] = word;
+        }
+    }
+
+    private static void compress(int[] state, int[] w, int[] result) {
+        compress(state, w, result, 0);
+    }
+
+    /**
+     * SHA-1 compression of the block held in <code>w[0..15]</code>, the result is written at <code>result[off..off+4]</code>
+     */
+    private static void compress(int[] state, int[] w, int[] result, int off) {
+        for (int t = 16; t < 80; t++) {
+            int x = w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16];
+            w[t] = (x << 1) | (x >>> 31);
+        }
+
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+
+        for (int t = 0; t < 20; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + ((b & c) | (~b & d)) + e + 0x5A827999 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 20; t < 40; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0x6ED9EBA1 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 40; t < 60; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + ((b & c) | (b & d) | (c & d)) + e + 0x8F1BBCDC + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 60; t < 80; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0xCA62C1D6 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+
+        result[off] = state[0] + a;
+        result[off + 1] = state[1] + b;
+        result[off + 2] = state[2] + c;
+        result[off + 3] = state[3] + d;
+        result[off + 4] = state[4] + e;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Pure Java HMAC-SHA256 specialised for the 8 byte counter of HOTP/TOTP, see {@link Sha1Hmac}.
+ */
+class Sha256Hmac extends KeyedHmac {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int LENGTH = 32;
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final ThreadLocal<int[]> SCHEDULE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[64 + 8];
+        }
+    };
+
+    private final int[] inner = new int[8];
+    private final int[] outer = new int[8];
+
+    Sha256Hmac(byte[] secret) throws NoSuchAlgorithmException {
+        super(Hash.SHA256);
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("Empty key");
+        }
+        byte[] key = secret.length > BLOCK_SIZE ? MessageDigest.getInstance("SHA-256").digest(secret) : secret;
+        int[] w = new int[64];
+        pad(key, 0x36, w);
+        compress(IV, w, inner, 0);
+        pad(key, 0x5c, w);
+        compress(IV, w, outer, 0);
+    }
+
+    /**
+     * Restores the pad states written by {@link #exportState(byte[], int)}
+     */
+    Sha256Hmac(byte[] state, int off) {
+        super(Hash.SHA256);
+        readState(state, off, inner);
+        readState(state, off + LENGTH, outer);
+    }
+
+    @Override
+    public boolean hasExportableState() {
+        return true;
+    }
+
+    @Override
+    public int exportState(byte[] out, int off) {
+        return writeState(inner, out, off) + writeState(outer, out, off + LENGTH);
+    }
+
+    @Override
+    public int digest(long counter, byte[] out, int off) {
+        if (off < 0 || out.length - off < LENGTH) {
+            throw new IllegalArgumentException("Output buffer too small");
+        }
+        // w[0..63] is the message schedule, w[64..71] receives the hash
+        int[] w = SCHEDULE.get();
+
+        // Counter, padding and the length of ipad + counter in bits
+        w[0] = (int) (counter >>> 32);
+        w[1] = (int) counter;
+        w[2] = 0x80000000;
+        for (int t = 3; t < 15; t++) {
+            w[t] = 0;
+        }
+        w[15] = (BLOCK_SIZE + 8) * 8;
+        compress(inner, w, w, 64);
+
+        // Inner hash, padding and the length of opad + inner hash in bits
+        for (int t = 0; t < 8; t++) {
+            w[t] = w[64 + t];
+        }
+        w[8] = 0x80000000;
+        for (int t = 9; t < 15; t++) {
+            w[t] = 0;
+        }
+        w[15] = (BLOCK_SIZE + LENGTH) * 8;
+        compress(outer, w, w, 64);
+
+        for (int t = 0; t < 8; t++) {
+            int v = w[64 + t];
+            out[off++] = (byte) (v >>> 24);
+            out[off++] = (byte) (v >>> 16);
+            out[off++] = (byte) (v >>> 8);
+            out[off++] = (byte) v;
+        }
+        return LENGTH;
+    }
+
+    private static void pad(byte[] key, int pad, int[] w) {
+        for (int t = 0; t < 16; t++) {
+            int word = 0;
+            for (int i = 0; i < 4; i++) {
+                int index = t * 4 + i;
+                int b = index < key.length ? key[index] & 0xff : 0;
+                word = (word << 8) | (b ^ pad);
+            }
+            w[t] = word;
+        }
+    }
+
+    /**
+     * SHA-256 compression of the block held in <code>w[0..15]</code>, the result is written at <code>result[off..off+7]</code>
+     */
+    private static void compress(int[] state, int[] w, int[] result, int off) {
+        for (int t = 16; t < 64; t++) {
+            int x = w[t - 15];
+            int y = w[t - 2];
+            int s0 = ((x >>> 7) | (x << 25)) ^ ((x >>> 18) | (x << 14)) ^ (x >>> 3);
+            int s1 = ((y >>> 17) | (y << 15)) ^ ((y >>> 19) | (y << 13)) ^ (y >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+        int f = state[5];
+        int g = state[6];
+        int h = state[7];
+
+        for (int t = 0; t < 64; t++) {
+            int s1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+            int t1 = h + s1 + ((e & f) ^ (~e & g)) + K[t] + w[t];
+            int s0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+            int t2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        result[off] = state[0] + a;
+        result[off + 1] = state[1] + b;
+        result[off + 2] = state[2] + c;
+        result[off + 3] = state[3] + d;
+        result[off + 4] = state[4] + e;
+        result[off + 5] = state[5] + f;
+        result[off + 6] = state[6] + g;
+        result[off + 7] = state[7] + h;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+/**
+ * Source of the current time for a {@link Clock}. Implementations must be thread-safe.
+ */
+public interface TimeSource {
+
+    /**
+     * Reads {@link System#currentTimeMillis()} on every call
+     */
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long getCurrentSeconds() {
+            return System.currentTimeMillis() / 1000;
+        }
+    };
+
+    /**
+     * @return Seconds since the epoch, UTC
+     */
+    long getCurrentSeconds();
+}
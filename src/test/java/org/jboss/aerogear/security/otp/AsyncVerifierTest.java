@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class AsyncVerifierTest {
+
+    @Mock
+    private Clock clock;
+    private Totp totp;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        totp = new Totp("B2374TNIQ3HKC446", clock);
+    }
+
+    @Test
+    public void testVerifyAsync() throws Exception {
+        AsyncVerifier verifier = new AsyncVerifier();
+        String otp = totp.now();
+        assertTrue(verifier.verifyAsync(totp, otp).get(5, TimeUnit.SECONDS));
+        assertFalse(verifier.verifyAsync(totp, otp.equals("000000") ? "000001" : "000000").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        AsyncVerifier verifier = new AsyncVerifier().withLookup(new AsyncVerifier.SecretLookup() {
+            @Override
+            public Totp lookup(long accountId) throws Exception {
+                if (accountId < 0) {
+                    throw new IllegalStateException("Store unavailable");
+                }
+                return accountId == 1 ? totp : null;
+            }
+        });
+        String otp = totp.now();
+        assertTrue(verifier.verifyAsync(1, otp).get(5, TimeUnit.SECONDS));
+        assertFalse(verifier.verifyAsync(2, otp).get(5, TimeUnit.SECONDS));
+        try {
+            verifier.verifyAsync(-1, otp).get(5, TimeUnit.SECONDS);
+            fail("Lookup failure should complete the future exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testTimeoutInterruptsVerification() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        AsyncVerifier verifier = new AsyncVerifier().withTimeout(50, TimeUnit.MILLISECONDS)
+                .withLookup(new AsyncVerifier.SecretLookup() {
+                    @Override
+                    public Totp lookup(long accountId) throws Exception {
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            throw e;
+                        }
+                        return totp;
+                    }
+                });
+        try {
+            verifier.verifyAsync(1, totp.now()).get(5, TimeUnit.SECONDS);
+            fail("Verification should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTimedOutLookupDoesNotBurnTheCode() throws Exception {
+        final AtomicInteger marked = new AtomicInteger();
+        final Totp replayChecked = totp.withReplayStore(new ReplayStore() {
+            @Override
+            public boolean markUsed(long secretId, long slot, long oldestSlot) {
+                marked.incrementAndGet();
+                return true;
+            }
+        }, 1);
+        final CountDownLatch returned = new CountDownLatch(1);
+        AsyncVerifier verifier = new AsyncVerifier().withTimeout(50, TimeUnit.MILLISECONDS)
+                .withLookup(new AsyncVerifier.SecretLookup() {
+                    @Override
+                    public Totp lookup(long accountId) {
+                        // Ignores the interrupt, as a blocking client may
+                        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                        while (System.nanoTime() < end) {
+                            Thread.yield();
+                        }
+                        returned.countDown();
+                        return replayChecked;
+                    }
+                });
+        try {
+            verifier.verifyAsync(1, totp.now()).get(5, TimeUnit.SECONDS);
+            fail("Verification should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(0, marked.get());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncVerifier verifier = new AsyncVerifier().withLookup(new AsyncVerifier.SecretLookup() {
+            @Override
+            public Totp lookup(long accountId) throws Exception {
+                release.await();
+                return totp;
+            }
+        });
+        CompletableFuture<Boolean> result = verifier.verifyAsync(1, totp.now());
+        result.cancel(true);
+        result.get();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoLookup() throws Exception {
+        new AsyncVerifier().verifyAsync(1, "000000");
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.VerificationListener.Outcome;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class AttemptLimiterTest {
+
+    @Mock
+    private Clock clock;
+    private AttemptLimiter limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        limiter = new AttemptLimiter(1024, 3, 2);
+    }
+
+    @Test
+    public void testLimitPerBucket() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(42, 100));
+        }
+        assertTrue(limiter.isThrottled(42, 101));
+        assertFalse(limiter.tryAcquire(42, 101));
+        assertEquals(3, limiter.getAttempts(42, 100));
+        assertEquals(1, limiter.getThrottledCount());
+        assertTrue(limiter.getThrottledCells(100) >= 1);
+
+        // Other accounts and the next bucket are not affected
+        assertTrue(limiter.tryAcquire(43, 100));
+        assertTrue(limiter.tryAcquire(42, 102));
+        assertEquals(1, limiter.getAttempts(42, 102));
+    }
+
+    @Test
+    public void testSharedCellDoesNotLockOut() throws Exception {
+        long attacked = 42;
+        long neighbour = -1;
+        for (long id = 43; neighbour < 0; id++) {
+            boolean sharesFirst = limiter.firstCell(id) == limiter.firstCell(attacked)
+                    || limiter.firstCell(id) == limiter.secondCell(attacked);
+            boolean sharesSecond = limiter.secondCell(id) == limiter.firstCell(attacked)
+                    || limiter.secondCell(id) == limiter.secondCell(attacked);
+            if (sharesFirst != sharesSecond && limiter.firstCell(id) != limiter.secondCell(id)) {
+                neighbour = id;
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(attacked, 100);
+        }
+        assertTrue(limiter.isThrottled(attacked, 100));
+
+        // The neighbour keeps all of its attempts, its other cell being untouched
+        assertEquals(0, limiter.getAttempts(neighbour, 100));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(limiter.isThrottled(neighbour, 100));
+            assertTrue(limiter.tryAcquire(neighbour, 100));
+        }
+        assertTrue(limiter.isThrottled(neighbour, 100));
+        assertFalse(limiter.tryAcquire(neighbour, 100));
+    }
+
+    @Test
+    public void testMonitoringAgreesWithEnforcement() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(42, 100);
+        }
+        for (long id = 0; id < 20000; id++) {
+            if (id != 42) {
+                assertEquals(!limiter.isThrottled(id, 100), limiter.tryAcquire(id, 100));
+            }
+        }
+    }
+
+    @Test
+    public void testLateAttemptCountsInNewerBucket() throws Exception {
+        assertTrue(limiter.tryAcquire(42, 102));
+        assertTrue(limiter.tryAcquire(42, 101));
+        assertEquals(2, limiter.getAttempts(42, 102));
+    }
+
+    @Test
+    public void testTotpThrottledBeforeVerification() throws Exception {
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        VerificationMetrics metrics = new VerificationMetrics();
+        Totp totp = new Totp("B2374TNIQ3HKC446", clock).withListener(metrics).withAttemptLimiter(limiter, 7);
+        String otp = totp.now();
+        String invalid = otp.equals("000000") ? "000001" : "000000";
+
+        assertFalse(totp.verify(invalid));
+        assertFalse(totp.verify(invalid));
+        assertTrue(totp.verify(otp));
+        assertFalse(totp.verify(otp));
+        assertEquals(1, metrics.getCount(Outcome.THROTTLED));
+        assertEquals(2 * 2 + 1, metrics.getCandidates());
+
+        when(clock.getCurrentInterval()).thenReturn(1002L);
+        assertTrue(totp.verify(totp.now()));
+    }
+
+    @Test
+    public void testMotpThrottled() throws Exception {
+        when(clock.getCurrentSeconds()).thenReturn(1000000L);
+        Motp motp = new Motp("1234", "7ac61d4736f51a2b", clock).withAttemptLimiter(new AttemptLimiter(16, 1), 7);
+        String otp = motp.now();
+        assertTrue(motp.verify(otp));
+        assertFalse(motp.verify(otp));
+        when(clock.getCurrentSeconds()).thenReturn(1000010L);
+        assertTrue(motp.verify(otp));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() throws Exception {
+        new AttemptLimiter(16, 0);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class DriftTrackerTest {
+
+    @Mock
+    private Clock clock;
+    private DriftTracker tracker;
+    private VerificationMetrics metrics;
+    private Totp totp;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        tracker = new DriftTracker(4, 3, 2, 1);
+        metrics = new VerificationMetrics();
+        totp = new Totp("B2374TNIQ3HKC446", clock).withListener(metrics).withDriftTracker(tracker, 2);
+    }
+
+    private String codeAt(long interval) {
+        when(clock.getCurrentInterval()).thenReturn(interval);
+        return totp.now();
+    }
+
+    @Test
+    public void testDeviceBehind() throws Exception {
+        String code = codeAt(997L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertTrue(totp.verify(code));
+        assertTrue(tracker.hasDrift(2));
+        assertEquals(3, tracker.getDrift(2));
+        assertEquals(1, metrics.getOffsetCount(3));
+    }
+
+    @Test
+    public void testDeviceAhead() throws Exception {
+        String code = codeAt(1002L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertTrue(totp.verify(code));
+        assertEquals(-2, tracker.getDrift(2));
+        assertEquals(1, metrics.getOffsetCount(-2));
+        assertFalse(tracker.hasDrift(1));
+    }
+
+    @Test
+    public void testRecordedDriftSearchedFirst() throws Exception {
+        tracker.record(2, 3);
+        String code = codeAt(1997L);
+        when(clock.getCurrentInterval()).thenReturn(2000L);
+        assertTrue(totp.verify(code));
+        assertEquals(1, metrics.getCandidates());
+
+        // The device drifted one more step, found right after the recorded offset
+        code = codeAt(2998L);
+        when(clock.getCurrentInterval()).thenReturn(3000L);
+        assertTrue(totp.verify(code));
+        assertEquals(1 + 2, metrics.getCandidates());
+        assertEquals(2, tracker.getDrift(2));
+    }
+
+    @Test
+    public void testClockCorrectedAfterRecordedDrift() throws Exception {
+        String code = codeAt(997L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertTrue(totp.verify(code));
+        assertEquals(3, tracker.getDrift(2));
+
+        // The device clock was corrected, its codes are in sync again
+        code = codeAt(2000L);
+        when(clock.getCurrentInterval()).thenReturn(2000L);
+        assertTrue(totp.verify(code));
+        assertEquals(0, tracker.getDrift(2));
+        assertEquals(1, metrics.getOffsetCount(0));
+    }
+
+    @Test
+    public void testMissAfterRecordedDrift() throws Exception {
+        tracker.record(2, 3);
+        String code = codeAt(1003L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertFalse(totp.verify(code));
+        assertEquals(3, tracker.getDrift(2));
+        // Every offset within the bounds once
+        assertEquals(3 + 2 + 1, metrics.getCandidates());
+    }
+
+    @Test
+    public void testOutOfBounds() throws Exception {
+        String code = codeAt(996L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertFalse(totp.verify(code));
+        assertFalse(tracker.hasDrift(2));
+
+        code = codeAt(1003L);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        assertFalse(totp.verify(code));
+        // Every offset within the bounds, none outside
+        assertEquals(2 * (3 + 2 + 1), metrics.getCandidates());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        tracker.record(2, -1);
+        assertTrue(tracker.hasDrift(2));
+        tracker.reset(2);
+        assertFalse(tracker.hasDrift(2));
+        assertEquals(0, tracker.getDrift(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordOutOfBounds() throws Exception {
+        tracker.record(0, 4);
+    }
+
+    @Test
+    public void testMotpDeviceBehind() throws Exception {
+        when(clock.getCurrentSeconds()).thenReturn(1000000L);
+        Motp motp = new Motp("1234", "7ac61d4736f51a2b", clock).withDriftTracker(tracker, 0);
+        String otp = motp.now();
+        when(clock.getCurrentSeconds()).thenReturn(1000020L);
+        assertTrue(motp.verify(otp));
+        assertEquals(2, tracker.getDrift(0));
+    }
+
+    @Test
+    public void testMotpClockCorrectedAfterRecordedDrift() throws Exception {
+        when(clock.getCurrentSeconds()).thenReturn(1000000L);
+        Motp motp = new Motp("1234", "7ac61d4736f51a2b", clock).withDriftTracker(tracker, 0);
+        tracker.record(0, 3);
+        assertTrue(motp.verify(motp.now()));
+        assertEquals(0, tracker.getDrift(0));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HotpCounterStoreTest {
+
+    // RFC 4226 Appendix D
+    private final Hotp hotp = new Hotp(Base32.encode("12345678901234567890".getBytes()));
+
+    @Test
+    public void testAdvance() throws Exception {
+        HotpCounterStore store = new HotpCounterStore(4);
+        assertTrue(store.advance(1, 5));
+        assertEquals(6, store.get(1));
+        assertFalse(store.advance(1, 5));
+        assertFalse(store.advance(1, 3));
+        assertTrue(store.advance(1, 6));
+        assertEquals(0, store.get(0));
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        HotpCounterStore store = new HotpCounterStore(4);
+        assertEquals(3, hotp.verify("969429", store, 2, 10));
+        assertEquals(4, store.get(2));
+        assertEquals(-1, hotp.verify("969429", store, 2, 10));
+        assertEquals(-1, hotp.verify("287082", store, 2, 10));
+        assertEquals(4, hotp.verify("338314", store, 2, 0));
+    }
+
+    @Test
+    public void testConcurrentVerifyAcceptsOnce() throws Exception {
+        final HotpCounterStore store = new HotpCounterStore(1);
+        final AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 100; round++) {
+                final String code = hotp.generate(store.get(0) + 2);
+                Future<?>[] futures = new Future<?>[8];
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i] = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            if (hotp.verify(code, store, 0, 5) >= 0) {
+                                accepted.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    });
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                assertEquals(round + 1, accepted.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotRestore() throws Exception {
+        HotpCounterStore store = new HotpCounterStore(3);
+        store.advance(0, 9);
+        store.advance(2, 41);
+        long[] snapshot = store.snapshot();
+        assertArrayEquals(new long[]{10, 0, 42}, snapshot);
+
+        HotpCounterStore restored = new HotpCounterStore(3);
+        restored.advance(2, 99);
+        restored.restore(snapshot);
+        assertArrayEquals(new long[]{10, 0, 100}, restored.snapshot());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HotpTest {
+
+    // RFC 4226 Appendix D
+    private static final String SECRET = Base32.encode("12345678901234567890".getBytes());
+    private static final String[] CODES = {"755224", "287082", "359152", "969429", "338314",
+            "254676", "287922", "162583", "399871", "520489"};
+
+    private final Hotp hotp = new Hotp(SECRET);
+
+    @Test
+    public void testRfc4226() throws Exception {
+        for (int counter = 0; counter < CODES.length; counter++) {
+            assertEquals(CODES[counter], hotp.generate(counter));
+            assertEquals(counter, hotp.verify(CODES[counter], counter, 0));
+        }
+    }
+
+    @Test
+    public void testLookAhead() throws Exception {
+        assertEquals(7, hotp.verify("162583", 2, 5));
+        assertEquals(-1, hotp.verify("162583", 2, 4));
+    }
+
+    @Test
+    public void testPastCounterRejected() throws Exception {
+        assertEquals(-1, hotp.verify("287082", 2, 50));
+    }
+
+    @Test
+    public void testInvalidCode() throws Exception {
+        assertEquals(-1, hotp.verify("12a456", 0, 50));
+        assertEquals(-1, hotp.verify("", 0, 50));
+    }
+
+    @Test
+    public void testUri() throws Exception {
+        assertEquals("otpauth://hotp/john?secret=" + SECRET + "&counter=3", hotp.uri("john", 3));
+        assertEquals("otpauth://hotp/john?secret=" + SECRET + "&counter=0&algorithm=SHA256",
+                new Hotp(SECRET, Hash.SHA256).uri("john", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedSecret() throws Exception {
+        new Hotp("1!");
+    }
+}
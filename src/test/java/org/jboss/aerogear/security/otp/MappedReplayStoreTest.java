@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MappedReplayStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "replay.db");
+    }
+
+    @Test
+    public void testReplayIsRejected() throws Exception {
+        MappedReplayStore store = MappedReplayStore.open(file, 1024);
+        assertEquals(1024, store.getCapacity());
+        assertTrue(store.markUsed(42, 100, 99));
+        assertFalse(store.markUsed(42, 100, 99));
+        assertTrue(store.markUsed(42, 101, 100));
+        assertTrue(store.markUsed(43, 100, 99));
+        assertEquals(3, store.size(99));
+        assertEquals(1, store.size(101));
+        store.close();
+    }
+
+    @Test
+    public void testSharedBetweenMappings() throws Exception {
+        // Two mappings of the file, as two JVMs of the same host would have
+        MappedReplayStore first = MappedReplayStore.open(file, 64);
+        MappedReplayStore second = MappedReplayStore.open(file, 64);
+        assertTrue(first.markUsed(42, 100, 99));
+        assertFalse(second.markUsed(42, 100, 99));
+        assertTrue(second.markUsed(42, 101, 100));
+        assertFalse(first.markUsed(42, 101, 100));
+    }
+
+    @Test
+    public void testFullBucketFailsClosed() throws Exception {
+        MappedReplayStore store = MappedReplayStore.open(file, 8);
+        for (long id = 0; id < 8; id++) {
+            assertTrue(store.markUsed(id, 100, 99));
+        }
+        assertFalse(store.markUsed(8, 100, 99));
+        // Expired slots are reused
+        for (long id = 0; id < 8; id++) {
+            assertTrue(store.markUsed(id, 102, 101));
+        }
+    }
+
+    @Test
+    public void testStepsWrapAround() throws Exception {
+        MappedReplayStore store = MappedReplayStore.open(file, 8);
+        long step = 0xFFFFFFFFL;
+        assertTrue(store.markUsed(42, step, step - 1));
+        assertTrue(store.markUsed(42, step + 1, step));
+        assertFalse(store.markUsed(42, step + 1, step));
+        assertEquals(1, store.size(step + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherCapacity() throws Exception {
+        MappedReplayStore.open(file, 64);
+        MappedReplayStore.open(file, 128);
+    }
+
+    @Test
+    public void testTotpReplay() throws Exception {
+        Clock clock = mock(Clock.class);
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        Totp totp = new Totp("B2374TNIQ3HKC446", clock);
+        String otp = totp.now();
+        assertTrue(totp.withReplayStore(MappedReplayStore.open(file, 64), 1).verify(otp));
+        assertFalse(totp.withReplayStore(MappedReplayStore.open(file, 64), 1).verify(otp));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final MappedReplayStore[] stores = {MappedReplayStore.open(file, 1 << 16), MappedReplayStore.open(file, 1 << 16)};
+        final AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                final MappedReplayStore store = stores[t & 1];
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (long id = 0; id < 10000; id++) {
+                            if (store.markUsed(id, 7, 6)) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Racing claims of one code may both lose, never both win
+        assertTrue(accepted.get() <= 10000);
+        for (long id = 0; id < 10000; id++) {
+            assertFalse(stores[0].markUsed(id, 7, 6));
+        }
+    }
+}
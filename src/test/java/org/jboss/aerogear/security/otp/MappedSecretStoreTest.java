@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class MappedSecretStoreTest {
+
+    private static final byte[] SEED = "12345678901234567890".getBytes();
+    private static final byte[] SEED32 = "12345678901234567890123456789012".getBytes();
+    private static final byte[] SEED64 = "1234567890123456789012345678901234567890123456789012345678901234".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Clock clock;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(clock.getCurrentSeconds()).thenReturn(59L);
+        file = new File(folder.getRoot(), "secrets.db");
+    }
+
+    @Test
+    public void testRfc6238() throws Exception {
+        // RFC 6238 Appendix B, eight digits
+        MappedSecretStore store = MappedSecretStore.open(file, 100, 64, clock);
+        store.put(0, SEED, Hash.SHA1, Digits.EIGHT, 30);
+        store.put(1, SEED32, Hash.SHA256, Digits.EIGHT, 30);
+        store.put(99, SEED64, Hash.SHA512, Digits.EIGHT, 30);
+        assertTrue(store.verify(0, "94287082"));
+        assertTrue(store.verify(1, "46119246"));
+        assertTrue(store.verify(99, "90693936"));
+        assertFalse(store.verify(1, "94287082"));
+
+        when(clock.getCurrentSeconds()).thenReturn(1111111109L);
+        assertTrue(store.verify(0, "07081804"));
+    }
+
+    @Test
+    public void testSameCodesAsTotp() throws Exception {
+        String secret = "B2374TNIQ3HKC446";
+        Clock totpClock = new Clock(30) {
+            @Override
+            public long getCurrentSeconds() {
+                return 59L;
+            }
+        };
+        MappedSecretStore store = MappedSecretStore.open(file, 10, 20, clock);
+        store.put(3, Base32.decode(secret));
+        assertTrue(store.verify(3, new Totp(secret, totpClock).now()));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        MappedSecretStore store = MappedSecretStore.open(file, 1000, 20, clock);
+        store.put(500, SEED, Hash.SHA1, Digits.EIGHT, 30);
+        store.close();
+
+        MappedSecretStore reopened = MappedSecretStore.open(file, clock);
+        assertEquals(1000, reopened.getCapacity());
+        assertEquals(20, reopened.getKeyCapacity());
+        assertTrue(reopened.verify(500, "94287082"));
+        assertFalse(reopened.contains(501));
+    }
+
+    @Test
+    public void testKeysNotStoredWhenStatesFit() throws Exception {
+        MappedSecretStore store = MappedSecretStore.open(file, 10, 40, clock);
+        store.put(0, SEED, Hash.SHA1, Digits.EIGHT, 30);
+        store.force();
+        assertFalse(new String(Files.readAllBytes(file.toPath()), "ISO-8859-1").contains(new String(SEED, "ISO-8859-1")));
+        store.put(1, SEED32, Hash.SHA256, Digits.EIGHT, 30);
+        store.close();
+        assertTrue("SHA256 states don't fit, the key is kept",
+                new String(Files.readAllBytes(file.toPath()), "ISO-8859-1").contains(new String(SEED32, "ISO-8859-1")));
+
+        MappedSecretStore reopened = MappedSecretStore.open(file, clock);
+        assertTrue(reopened.verify(0, "94287082"));
+        assertTrue(reopened.verify(1, "46119246"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws Exception {
+        MappedSecretStore.open(file, 10, 64, clock).close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(2);
+        raf.close();
+        MappedSecretStore.open(file, clock);
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        MappedSecretStore store = MappedSecretStore.open(file, 10, 20, clock);
+        store.put(0, SEED, Hash.SHA1, Digits.EIGHT, 30);
+        store.remove(0);
+        assertFalse(store.contains(0));
+        assertFalse(store.verify(0, "94287082"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCapacityMismatch() throws Exception {
+        MappedSecretStore.open(file, 10, 20, clock).close();
+        MappedSecretStore.open(file, 20, 20, clock);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyTooLong() throws Exception {
+        MappedSecretStore.open(file, 10, 20, clock).put(0, SEED32);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() throws Exception {
+        MappedSecretStore.open(file, 10, 20, clock).verify(10, 0);
+    }
+}
@@ -17,12 +17,14 @@
 
 package org.jboss.aerogear.security.otp;
 
+import org.apache.commons.codec.binary.Hex;
 import org.jboss.aerogear.security.otp.api.Clock;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.security.MessageDigest;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -65,6 +67,29 @@ public class MotpTest {
         assertEquals(6, otp.length());
     }
 
+    @Test
+    public void testMatchesReferenceImplementation() throws Exception {
+        for (long seconds = 1356048000L; seconds < 1356048000L + 100; seconds += 7) {
+            when(clock.getCurrentSeconds()).thenReturn(seconds);
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            String base = Long.toString(seconds / 10) + sharedSecret + pin;
+            String expected = Hex.encodeHexString(md5.digest(base.getBytes("UTF-8"))).substring(0, 6);
+            assertEquals(expected, motp.now());
+        }
+    }
+
+    @Test
+    public void testUpperCaseOtp() throws Exception {
+        String otp = motp.now();
+        assertTrue("OTP is not valid", motp.verify(otp.toUpperCase()));
+    }
+
+    @Test
+    public void testMalformedOtp() throws Exception {
+        assertFalse("OTP should be invalid", motp.verify("12345"));
+        assertFalse("OTP should be invalid", motp.verify("12345g"));
+    }
+
     @Test
     public void testValidOtp() throws Exception {
         String otp = motp.now();
@@ -138,4 +163,12 @@ public class MotpTest {
         when(clock.getCurrentSeconds()).thenReturn(addElapsedTime(61));
         assertFalse("OTP should be invalid", motp.verify(otp));
     }
+
+    @Test
+    public void testReplayedOtp() throws Exception {
+        Motp motp = this.motp.withReplayStore(new StripedReplayStore(), 42);
+        String otp = motp.now();
+        assertTrue("OTP should be valid", motp.verify(otp));
+        assertFalse("OTP should not be accepted twice", motp.verify(otp));
+    }
 }
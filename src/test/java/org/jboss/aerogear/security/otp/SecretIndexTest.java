@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SecretIndexTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        SecretIndex index = new SecretIndex();
+        assertEquals(-1, index.get(42));
+        assertEquals(-1, index.put(42, 7));
+        assertEquals(-1, index.put(0, 0));
+        assertEquals(-1, index.put(Long.MIN_VALUE, 1));
+        assertEquals(7, index.get(42));
+        assertEquals(0, index.get(0));
+        assertEquals(1, index.get(Long.MIN_VALUE));
+        assertEquals(7, index.put(42, 8));
+        assertEquals(8, index.remove(42));
+        assertEquals(-1, index.get(42));
+        assertEquals(-1, index.remove(42));
+        assertEquals(2, index.size());
+        assertEquals(-1, index.put(42, 9));
+        assertEquals(9, index.get(42));
+    }
+
+    @Test
+    public void testSameAsHashMap() throws Exception {
+        SecretIndex index = new SecretIndex();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            long id = random.nextInt(50000) - 25000L;
+            if (random.nextInt(4) == 0) {
+                Integer previous = expected.remove(id);
+                assertEquals(previous == null ? -1 : previous, index.remove(id));
+            } else {
+                Integer previous = expected.put(id, i);
+                assertEquals(previous == null ? -1 : previous, index.put(id, i));
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (long id = -25000; id < 25000; id++) {
+            Integer record = expected.get(id);
+            assertEquals(record == null ? -1 : record, index.get(id));
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final SecretIndex index = new SecretIndex();
+        final int users = 100000;
+        final boolean[] failed = new boolean[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 20; round++) {
+                    for (int id = 0; id < users; id++) {
+                        int record = index.get(id);
+                        if (record != -1 && record != id * 2) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int id = 0; id < users; id++) {
+            index.put(id, id * 2);
+        }
+        reader.join();
+        assertEquals(false, failed[0]);
+        assertEquals(users, index.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRecord() throws Exception {
+        new SecretIndex().put(1, -1);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripedReplayStoreTest {
+
+    @Test
+    public void testReplayIsRejected() throws Exception {
+        StripedReplayStore store = new StripedReplayStore();
+        assertTrue(store.markUsed(42, 100, 99));
+        assertFalse(store.markUsed(42, 100, 99));
+        assertTrue(store.markUsed(42, 101, 100));
+        assertTrue(store.markUsed(43, 100, 99));
+    }
+
+    @Test
+    public void testMemoryIsBoundedToTheWindow() throws Exception {
+        StripedReplayStore store = new StripedReplayStore(1);
+        for (long slot = 0; slot < 1000; slot++) {
+            for (long id = 0; id < 100; id++) {
+                assertTrue(store.markUsed(id, slot, slot - 1));
+            }
+        }
+        assertTrue("Expired codes must be reclaimed", store.size() <= 400);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final StripedReplayStore store = new StripedReplayStore();
+        final AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (long id = 0; id < 10000; id++) {
+                            if (store.markUsed(id, 7, 6)) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(10000, accepted.get());
+    }
+}
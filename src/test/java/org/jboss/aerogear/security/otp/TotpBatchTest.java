@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Base32;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TotpBatchTest {
+
+    private static final int SIZE = 1000;
+
+    @Mock
+    private Clock clock;
+    private String[] secrets;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(clock.getCurrentInterval()).thenReturn(45187109L);
+        secrets = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            secrets[i] = Base32.encode(new byte[]{'s', 'e', 'c', 'r', 'e', 't', (byte) (i >> 8), (byte) i, 0, 0});
+        }
+    }
+
+    @Test
+    public void testNow() throws Exception {
+        String[] otps = TotpBatch.now(secrets, clock);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(new Totp(secrets[i], clock).now(), otps[i]);
+        }
+    }
+
+    @Test
+    public void testVerifyAll() throws Exception {
+        String[] otps = TotpBatch.now(secrets, clock);
+        int[] codes = new int[SIZE];
+        BitSet expected = new BitSet(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            codes[i] = Integer.parseInt(otps[i]);
+            if (i % 3 == 0) {
+                codes[i] = (codes[i] + 1) % 1000000;
+            } else {
+                expected.set(i);
+            }
+        }
+        assertEquals(expected, TotpBatch.verifyAll(secrets, codes, clock));
+    }
+
+    @Test
+    public void testEngine() throws Exception {
+        TotpEngine engine = new TotpEngine(clock, Hash.SHA512, Digits.EIGHT, 1);
+        String[] otps = TotpBatch.now(secrets, engine);
+        int[] codes = new int[SIZE];
+        BitSet expected = new BitSet(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(engine.now(engine.key(secrets[i])), otps[i]);
+            codes[i] = Digits.EIGHT.parse(otps[i]);
+            expected.set(i);
+        }
+        assertEquals(expected, TotpBatch.verifyAll(secrets, codes, engine));
+        // The same codes are not valid for the default SHA1 six digit engine
+        assertEquals(new BitSet(), TotpBatch.verifyAll(secrets, codes, new TotpEngine(clock)));
+    }
+
+    @Test
+    public void testClockReadOnce() throws Exception {
+        TotpBatch.verifyAll(secrets, new int[SIZE], clock);
+        verify(clock, times(1)).getCurrentInterval();
+    }
+
+    @Test
+    public void testMalformedSecret() throws Exception {
+        String[] otps = TotpBatch.now(new String[]{"1!"}, clock);
+        assertNull(otps[0]);
+        assertEquals(new BitSet(), TotpBatch.verifyAll(new String[]{"1!"}, new int[]{0}, clock));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class TotpCacheTest {
+
+    @Mock
+    private Clock clock;
+    private TotpCache cache;
+    private Totp totp;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(clock.getCurrentInterval()).thenReturn(45187109L);
+        cache = new TotpCache(1000);
+        totp = new Totp("R5MB5FAQNX5UIPWL", clock).withCache(cache);
+    }
+
+    @Test
+    public void testRetriesHitTheCache() throws Exception {
+        assertTrue(totp.verify("002941"));
+        assertFalse(totp.verify("002942"));
+        assertTrue(totp.verify("002941"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testPreviousIntervalIsAccepted() throws Exception {
+        when(clock.getCurrentInterval()).thenReturn(45187110L);
+        assertTrue(totp.verify("002941"));
+    }
+
+    @Test
+    public void testIntervalRollover() throws Exception {
+        assertTrue(totp.verify("002941"));
+        when(clock.getCurrentInterval()).thenReturn(45187111L);
+        assertFalse(totp.verify("002941"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        TotpCache small = new TotpCache(16);
+        for (int i = 0; i < 100; i++) {
+            new Totp("R5MB5FAQNX5UIPW" + (char) ('A' + i % 26) + (char) ('A' + i / 26), clock)
+                    .withCache(small).verify(0);
+        }
+        assertTrue(small.size() <= 16);
+    }
+
+    @Test
+    public void testSizeIsExactlyMaxEntries() throws Exception {
+        for (int maxEntries : new int[]{1, 5, 17, 1000}) {
+            TotpCache bounded = new TotpCache(maxEntries);
+            for (int i = 0; i < 20000; i++) {
+                bounded.put("secret" + i, Hash.SHA1, Digits.SIX, 45187109L, new int[]{i});
+            }
+            assertEquals(maxEntries, bounded.size());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
+import org.jboss.aerogear.security.otp.api.KeyState;
+import org.jboss.aerogear.security.otp.api.KeyedHmac;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class TotpEngineTest {
+
+    private static final String SECRET = "B2374TNIQ3HKC446";
+    private static final byte[] SEED = "12345678901234567890".getBytes();
+    private static final byte[] SEED32 = "12345678901234567890123456789012".getBytes();
+    private static final byte[] SEED64 = "1234567890123456789012345678901234567890123456789012345678901234".getBytes();
+
+    @Mock
+    private Clock clock;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(clock.getCurrentInterval()).thenReturn(59L / 30);
+    }
+
+    @Test
+    public void testRfc6238() throws Exception {
+        // RFC 6238 Appendix B at T = 59, the keys stored back to back in one buffer
+        byte[] keys = new byte[SEED.length + SEED32.length + SEED64.length];
+        System.arraycopy(SEED, 0, keys, 0, SEED.length);
+        System.arraycopy(SEED32, 0, keys, SEED.length, SEED32.length);
+        System.arraycopy(SEED64, 0, keys, SEED.length + SEED32.length, SEED64.length);
+
+        TotpEngine sha1 = new TotpEngine(clock, Hash.SHA1, Digits.EIGHT, 1);
+        TotpEngine sha256 = new TotpEngine(clock, Hash.SHA256, Digits.EIGHT, 1);
+        TotpEngine sha512 = new TotpEngine(clock, Hash.SHA512, Digits.EIGHT, 1);
+        assertEquals(94287082, sha1.generate(keys, 0, SEED.length));
+        assertEquals(46119246, sha256.generate(keys, SEED.length, SEED32.length));
+        assertEquals(90693936, sha512.generate(keys, SEED.length + SEED32.length, SEED64.length));
+        assertTrue(sha1.verify(keys, 0, SEED.length, "94287082"));
+        assertFalse(sha1.verify(keys, 0, SEED.length, "46119246"));
+        assertFalse(sha1.verify(keys, 0, SEED.length, "942870"));
+    }
+
+    @Test
+    public void testSameCodesAsTotp() throws Exception {
+        Totp totp = new Totp(SECRET, clock);
+        TotpEngine engine = new TotpEngine(clock);
+        KeyedHmac key = engine.key(SECRET);
+        for (long interval = 1000; interval < 1010; interval++) {
+            when(clock.getCurrentInterval()).thenReturn(interval);
+            String otp = totp.now();
+            assertEquals(otp, engine.now(key));
+            assertTrue(engine.verify(key, otp));
+            when(clock.getCurrentInterval()).thenReturn(interval + 1);
+            assertTrue(engine.verify(key, otp));
+            when(clock.getCurrentInterval()).thenReturn(interval + 2);
+            assertFalse(engine.verify(key, otp));
+        }
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        TotpEngine engine = new TotpEngine(clock, Hash.SHA1, Digits.SIX, 3);
+        KeyedHmac key = engine.key(SECRET);
+        int code = engine.generate(key, 997);
+        assertEquals(3, engine.match(key, 1000, code));
+        assertEquals(-1, engine.match(key, 1001, code));
+        assertEquals(-1, new TotpEngine(clock, Hash.SHA1, Digits.SIX, 0).match(key, 1000, code));
+    }
+
+    @Test
+    public void testLoadKeyState() throws Exception {
+        TotpEngine engine = new TotpEngine(clock, Hash.SHA512, Digits.EIGHT, 1);
+        byte[] state = KeyState.encode(engine.key(SEED64, 0, SEED64.length));
+        KeyedHmac key = engine.load(state, 0);
+        assertEquals("90693936", engine.now(key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyOfAnotherHash() throws Exception {
+        KeyedHmac key = new TotpEngine(clock, Hash.SHA256, Digits.SIX, 1).key(SEED32, 0, SEED32.length);
+        new TotpEngine(clock).verify(key, 123456);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSecret() throws Exception {
+        new TotpEngine(clock).key("not base32!");
+    }
+}
@@ -17,7 +17,10 @@
 
 package org.jboss.aerogear.security.otp;
 
+import org.jboss.aerogear.security.otp.api.Base32;
 import org.jboss.aerogear.security.otp.api.Clock;
+import org.jboss.aerogear.security.otp.api.Digits;
+import org.jboss.aerogear.security.otp.api.Hash;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -85,6 +88,76 @@ public class TotpTest {
         assertTrue("Generated token must be valid", totp.verify(otp));
     }
 
+    @Test
+    public void testRfc6238() throws Exception {
+        // RFC 6238 Appendix B, SHA1, truncated to six digits
+        String secret = Base32.encode("12345678901234567890".getBytes("US-ASCII"));
+        long[] times = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+        String[] expected = {"287082", "081804", "050471", "005924", "279037", "353130"};
+
+        Totp totp = new Totp(secret, clock);
+        for (int i = 0; i < times.length; i++) {
+            when(clock.getCurrentInterval()).thenReturn(times[i] / 30);
+            assertEquals(expected[i], totp.now());
+            assertTrue(totp.verify(expected[i]));
+        }
+    }
+
+    @Test
+    public void testRfc6238Sha256() throws Exception {
+        String secret = Base32.encode("12345678901234567890123456789012".getBytes("US-ASCII"));
+        long[] times = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+        String[] expected = {"119246", "084774", "062674", "819424", "698825", "737706"};
+
+        Totp totp = new Totp(secret, clock, Hash.SHA256);
+        for (int i = 0; i < times.length; i++) {
+            when(clock.getCurrentInterval()).thenReturn(times[i] / 30);
+            assertEquals(expected[i], totp.now());
+            assertTrue(totp.verify(expected[i]));
+        }
+    }
+
+    @Test
+    public void testRfc6238Sha512() throws Exception {
+        String secret = Base32.encode("1234567890123456789012345678901234567890123456789012345678901234".getBytes("US-ASCII"));
+        long[] times = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+        String[] expected = {"693936", "091201", "943326", "441116", "618901", "863826"};
+
+        Totp totp = new Totp(secret, clock, Hash.SHA512);
+        for (int i = 0; i < times.length; i++) {
+            when(clock.getCurrentInterval()).thenReturn(times[i] / 30);
+            assertEquals(expected[i], totp.now());
+            assertTrue(totp.verify(expected[i]));
+        }
+    }
+
+    @Test
+    public void testRfc6238EightDigits() throws Exception {
+        String secret = Base32.encode("12345678901234567890".getBytes("US-ASCII"));
+        long[] times = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+        String[] expected = {"94287082", "07081804", "14050471", "89005924", "69279037", "65353130"};
+
+        Totp totp = new Totp(secret, clock, Hash.SHA1, Digits.EIGHT);
+        for (int i = 0; i < times.length; i++) {
+            when(clock.getCurrentInterval()).thenReturn(times[i] / 30);
+            assertEquals(expected[i], totp.now());
+            assertTrue(totp.verify(expected[i]));
+            assertFalse(totp.verify(expected[i].substring(2)));
+        }
+    }
+
+    @Test
+    public void testUriDigits() throws Exception {
+        String url = String.format("otpauth://totp/%s?secret=%s&digits=8", "john", sharedSecret);
+        assertEquals(url, new Totp(sharedSecret, clock, Hash.SHA1, Digits.EIGHT).uri("john"));
+    }
+
+    @Test
+    public void testUriAlgorithm() throws Exception {
+        String url = String.format("otpauth://totp/%s?secret=%s&algorithm=SHA256", "john", sharedSecret);
+        assertEquals(url, new Totp(sharedSecret, clock, Hash.SHA256).uri("john"));
+    }
+
     @Test
     public void testNow() throws Exception {
         String otp = totp.now();
@@ -97,6 +170,26 @@ public class TotpTest {
         assertTrue("OTP is not valid", totp.verify(otp));
     }
 
+    @Test
+    public void testValidOtpAsInt() throws Exception {
+        String otp = totp.now();
+        assertTrue("OTP is not valid", totp.verify(Integer.parseInt(otp)));
+    }
+
+    @Test
+    public void testValidOtpAsCharArray() throws Exception {
+        char[] request = ("otp=" + totp.now() + "&").toCharArray();
+        assertTrue("OTP is not valid", totp.verify(request, 4, 6));
+    }
+
+    @Test
+    public void testMalformedOtp() throws Exception {
+        assertFalse("OTP should be invalid", totp.verify("12a456"));
+        assertFalse("OTP should be invalid", totp.verify(""));
+        assertFalse("OTP should be invalid", totp.verify("99999999999"));
+        assertFalse("OTP should be invalid", totp.verify(-1));
+    }
+
     @Test
     public void testOtpAfter10seconds() throws Exception {
         String otp = totp.now();
@@ -180,4 +273,12 @@ public class TotpTest {
         when(clock.getCurrentInterval()).thenReturn(addElapsedTime(61));
         assertFalse("OTP should be invalid", totp.verify(otp));
     }
+
+    @Test
+    public void testReplayedOtp() throws Exception {
+        Totp totp = this.totp.withReplayStore(new StripedReplayStore(), 42);
+        String otp = totp.now();
+        assertTrue("OTP should be valid", totp.verify(otp));
+        assertFalse("OTP should not be accepted twice", totp.verify(otp));
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp;
+
+import org.jboss.aerogear.security.otp.VerificationListener.Outcome;
+import org.jboss.aerogear.security.otp.api.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class VerificationMetricsTest {
+
+    @Mock
+    private Clock clock;
+    private VerificationMetrics metrics;
+    private Totp totp;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        metrics = new VerificationMetrics();
+        totp = new Totp("B2374TNIQ3HKC446", clock).withListener(metrics);
+    }
+
+    @Test
+    public void testTotpOutcomes() throws Exception {
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        String previous = totp.now();
+        when(clock.getCurrentInterval()).thenReturn(1001L);
+        String current = totp.now();
+
+        Totp replayProtected = totp.withReplayStore(new StripedReplayStore(), 1);
+        assertTrue(replayProtected.verify(current));
+        replayProtected.verify(current);
+        totp.verify(previous);
+        totp.verify("12a456");
+
+        assertEquals(4, metrics.getCount());
+        assertEquals(2, metrics.getCount(Outcome.ACCEPTED));
+        assertEquals(1, metrics.getCount(Outcome.REPLAYED));
+        assertEquals(1, metrics.getCount(Outcome.MALFORMED));
+        assertEquals(2, metrics.getOffsetCount(0));
+        assertEquals(1, metrics.getOffsetCount(1));
+        // Newest interval first: 1 candidate for the current code, 2 for the previous one
+        assertEquals(1 + 1 + 2, metrics.getCandidates());
+    }
+
+    @Test
+    public void testTotpCacheHitComputesNothing() throws Exception {
+        when(clock.getCurrentInterval()).thenReturn(1000L);
+        Totp cached = totp.withCache(new TotpCache(10));
+        cached.verify(0);
+        cached.verify(0);
+        assertEquals(2, metrics.getCount(Outcome.REJECTED));
+        assertEquals(2, metrics.getCandidates());
+    }
+
+    @Test
+    public void testMotpOutcomes() throws Exception {
+        when(clock.getCurrentSeconds()).thenReturn(1000000L);
+        Motp motp = new Motp("1234", "7ac61d4736f51a2b", clock).withListener(metrics);
+        String otp = motp.now();
+        assertTrue(motp.verify(otp));
+        motp.verify("zzzzzz");
+        assertEquals(1, metrics.getCount(Outcome.ACCEPTED));
+        assertEquals(1, metrics.getCount(Outcome.MALFORMED));
+        assertEquals(1, metrics.getOffsetCount(0));
+        assertEquals(1, metrics.getCandidates());
+    }
+
+    @Test
+    public void testLatencyPercentile() throws Exception {
+        assertEquals(0, metrics.getLatencyPercentile(99));
+        for (int i = 0; i < 99; i++) {
+            metrics.onVerification(Outcome.ACCEPTED, 0, 1, 1000);
+        }
+        metrics.onVerification(Outcome.ACCEPTED, 0, 1, 100000);
+        assertEquals(1024, metrics.getLatencyPercentile(50));
+        assertEquals(1024, metrics.getLatencyPercentile(99));
+        assertEquals(131072, metrics.getLatencyPercentile(100));
+        metrics.reset();
+        assertEquals(0, metrics.getCount());
+    }
+}
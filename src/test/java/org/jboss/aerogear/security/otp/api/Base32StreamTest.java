@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Base32StreamTest {
+
+    @Test
+    public void testEncodeAcrossBufferBoundaries() throws Exception {
+        byte[] data = "foobar".getBytes("US-ASCII");
+        Base32Encoder encoder = Base32.newEncoder();
+        CharBuffer out = CharBuffer.allocate(3);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < data.length; i++) {
+            ByteBuffer in = ByteBuffer.wrap(data, i, 1);
+            boolean last = i == data.length - 1;
+            while (!encoder.encode(in, out, last)) {
+                out.flip();
+                text.append(out);
+                out.clear();
+            }
+        }
+        out.flip();
+        text.append(out);
+        assertEquals("MZXW6YTBOI", text.toString());
+    }
+
+    @Test
+    public void testDecodeAcrossBufferBoundaries() throws Exception {
+        Base32Decoder decoder = Base32.newDecoder();
+        ByteBuffer out = ByteBuffer.allocate(6);
+        assertEquals(Base32Decoder.Result.UNDERFLOW, decoder.decode(CharBuffer.wrap("MZX"), out));
+        assertEquals(Base32Decoder.Result.UNDERFLOW, decoder.decode(CharBuffer.wrap("W6-YT"), out));
+        assertEquals(Base32Decoder.Result.END_OF_RECORD, decoder.decode(CharBuffer.wrap("BOI==\nMY"), out));
+        assertEquals("foobar", new String(out.array(), "US-ASCII"));
+    }
+
+    @Test
+    public void testDecodeOverflow() throws Exception {
+        Base32Decoder decoder = Base32.newDecoder();
+        CharBuffer in = CharBuffer.wrap("MZXW6YTBOI");
+        ByteBuffer out = ByteBuffer.allocate(4);
+        assertEquals(Base32Decoder.Result.OVERFLOW, decoder.decode(in, out));
+        assertTrue(in.hasRemaining());
+        out.clear();
+        assertEquals(Base32Decoder.Result.UNDERFLOW, decoder.decode(in, out));
+        assertEquals(2, out.position());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test(expected = Base32.DecodingException.class)
+    public void testDecodeIllegalCharacter() throws Exception {
+        Base32.newDecoder().decode(CharBuffer.wrap("MZXW1"), ByteBuffer.allocate(8));
+    }
+
+    @Test
+    public void testChannelRoundTrip() throws Exception {
+        int records = 5000;
+        byte[] secrets = new byte[records * 20];
+        new Random(42).nextBytes(secrets);
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        assertEquals(records, Base32.newEncoder().encode(
+                Channels.newChannel(new ByteArrayInputStream(secrets)), Channels.newChannel(text), 20));
+
+        String[] lines = text.toString("US-ASCII").split("\n");
+        assertEquals(records, lines.length);
+        byte[] first = new byte[20];
+        System.arraycopy(secrets, 0, first, 0, 20);
+        assertEquals(Base32.encode(first), lines[0]);
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        assertEquals(records, Base32.newDecoder().decode(
+                Channels.newChannel(new ByteArrayInputStream(text.toByteArray())), Channels.newChannel(raw), 20));
+        assertArrayEquals(secrets, raw.toByteArray());
+    }
+
+    @Test(expected = Base32.DecodingException.class)
+    public void testChannelRecordLengthMismatch() throws Exception {
+        byte[] text = "MZXW6YTBOI\nMZXW6\n".getBytes("US-ASCII");
+        Base32.newDecoder().decode(Channels.newChannel(new ByteArrayInputStream(text)),
+                Channels.newChannel(new ByteArrayOutputStream()), 6);
+    }
+}
@@ -32,4 +32,43 @@ public class Base32Test {
     public void testDecode() throws Exception {
         assertEquals(10, Base32.decode(Base32.random()).length);
     }
+
+    @Test
+    public void testRfc4648() throws Exception {
+        String[] decoded = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+        String[] encoded = {"", "MY", "MZXQ", "MZXW6", "MZXW6YQ", "MZXW6YTB", "MZXW6YTBOI"};
+        for (int i = 0; i < decoded.length; i++) {
+            assertEquals(encoded[i], Base32.encode(decoded[i].getBytes("US-ASCII")));
+            assertEquals(encoded[i], new String(Base32.encodeToChars(decoded[i].getBytes("US-ASCII"))));
+            assertEquals(decoded[i], new String(Base32.decode(encoded[i]), "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testDecodeIgnoresCaseSeparatorsAndPadding() throws Exception {
+        assertEquals("foobar", new String(Base32.decode(" mzxw-6ytb oi====== "), "US-ASCII"));
+    }
+
+    @Test
+    public void testDecodeIntoBuffer() throws Exception {
+        byte[] out = new byte[8];
+        int length = Base32.decode("MZXW6YTBOI", out, 2);
+        assertEquals(6, length);
+        assertEquals("foobar", new String(out, 2, length, "US-ASCII"));
+    }
+
+    @Test(expected = Base32.DecodingException.class)
+    public void testIllegalCharacter() throws Exception {
+        Base32.decode("MZXW1");
+    }
+
+    @Test(expected = Base32.DecodingException.class)
+    public void testPaddingInTheMiddle() throws Exception {
+        Base32.decode("MZ=XW");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferTooSmall() throws Exception {
+        Base32.decode("MZXW6YTBOI", new byte[5], 0);
+    }
 }
@@ -19,7 +19,6 @@ package org.jboss.aerogear.security.otp.api;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -28,23 +27,24 @@ import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 public class ClockTest {
 
     @Mock
-    private Calendar calendar;
-
-    @InjectMocks
-    private Clock clock = new Clock();
+    private TimeSource timeSource;
 
+    private Clock clock;
 
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         Calendar gregorianCalendar = GregorianCalendar.getInstance(TimeZone.getTimeZone("UTC"));
         gregorianCalendar.set(2012, Calendar.DECEMBER, 21, 0, 0, 0);
-        when(calendar.getTimeInMillis()).thenReturn(gregorianCalendar.getTimeInMillis());
+        when(timeSource.getCurrentSeconds()).thenReturn(gregorianCalendar.getTimeInMillis() / 1000);
+        clock = new Clock(30, timeSource);
     }
 
     @Test
@@ -52,4 +52,28 @@ public class ClockTest {
         final long interval = 45201600L;
         assertEquals(interval, clock.getCurrentInterval());
     }
+
+    @Test
+    public void testTimeIsNotFrozen() throws Exception {
+        when(timeSource.getCurrentSeconds()).thenReturn(45201600L * 30 + 30);
+        assertEquals(45201601L, clock.getCurrentInterval());
+    }
+
+    @Test
+    public void testCustomInterval() throws Exception {
+        assertEquals(45201600L * 30 / 60, new Clock(60, timeSource).getCurrentInterval());
+    }
+
+    @Test
+    public void testDefault() throws Exception {
+        assertSame(Clock.getDefault(), Clock.getDefault());
+        assertEquals(30, Clock.getDefault().getInterval());
+        assertTrue(Math.abs(Clock.getDefault().getCurrentSeconds() - System.currentTimeMillis() / 1000) <= 1);
+    }
+
+    @Test
+    public void testCoarseTimeSource() throws Exception {
+        long seconds = CoarseTimeSource.getInstance().getCurrentSeconds();
+        assertTrue(Math.abs(seconds - System.currentTimeMillis() / 1000) <= 1);
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DigitsTest {
+
+    @Test
+    public void testFormat() throws Exception {
+        assertEquals("000000", Digits.SIX.format(0));
+        assertEquals("002941", Digits.SIX.format(2941));
+        assertEquals("999999", Digits.SIX.format(999999));
+        assertEquals("0000007", Digits.SEVEN.format(7));
+        assertEquals("1234567", Digits.SEVEN.format(1234567));
+        assertEquals("07081804", Digits.EIGHT.format(7081804));
+    }
+
+    @Test
+    public void testFormatSameAsStringFormat() throws Exception {
+        for (int code = 0; code < 1000000; code += 7) {
+            assertEquals(String.format("%06d", code), Digits.SIX.format(code));
+            assertEquals(String.format("%07d", code * 10 + 3), Digits.SEVEN.format(code * 10 + 3));
+        }
+    }
+
+    @Test
+    public void testFormatIntoBuffer() throws Exception {
+        char[] out = "otp=________&".toCharArray();
+        Digits.EIGHT.format(94287082, out, 4);
+        assertEquals("otp=94287082&", new String(out));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFormatOutOfRange() throws Exception {
+        Digits.SIX.format(1000000);
+    }
+
+    @Test
+    public void testStableCodes() throws Exception {
+        // Stored by MappedSecretStore, must never change
+        assertEquals(0, Digits.SIX.getCode());
+        assertEquals(1, Digits.SEVEN.getCode());
+        assertEquals(2, Digits.EIGHT.getCode());
+        for (Digits digits : Digits.values()) {
+            assertEquals(digits, Digits.fromCode(digits.getCode()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCode() throws Exception {
+        Digits.fromCode(-1);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(2941, Digits.SIX.parse("002941"));
+        assertEquals(7081804, Digits.EIGHT.parse("07081804"));
+        assertEquals(1234567, Digits.SEVEN.parse("otp=1234567".toCharArray(), 4, 7));
+    }
+
+    @Test
+    public void testParseInvalid() throws Exception {
+        assertEquals(-1, Digits.SIX.parse(""));
+        assertEquals(-1, Digits.SIX.parse("2941"));
+        assertEquals(-1, Digits.SIX.parse("0002941"));
+        assertEquals(-1, Digits.SIX.parse("12a456"));
+        assertEquals(-1, Digits.SIX.parse("-12345"));
+        assertEquals(-1, Digits.EIGHT.parse("123456".toCharArray(), 0, 6));
+    }
+}
@@ -17,8 +17,11 @@
 
 package org.jboss.aerogear.security.otp.api;
 
+import org.apache.commons.codec.binary.Hex;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static junit.framework.Assert.assertEquals;
 
 public class HmacTest {
@@ -28,4 +31,31 @@ public class HmacTest {
         byte[] hash = new Hmac(Hash.SHA1, Base32.decode(Base32.random()), new Clock().getCurrentInterval()).digest();
         assertEquals(20, hash.length);
     }
+
+    @Test
+    public void testKeyedDigest() throws Exception {
+        // RFC 4226 Appendix D
+        byte[] secret = "12345678901234567890".getBytes("US-ASCII");
+        KeyedHmac hmac = Hmac.keyed(Hash.SHA1, secret);
+        assertEquals("cc93cf18508d94934c64b65d8ba7667fb7cde4b0", Hex.encodeHexString(hmac.digest(0)));
+        assertEquals("75a48a19d4cbe100644e8ac1397eea747a2d33ab", Hex.encodeHexString(hmac.digest(1)));
+        assertEquals(Hex.encodeHexString(new Hmac(Hash.SHA1, secret, 1).digest()), Hex.encodeHexString(hmac.digest(1)));
+    }
+
+    @Test
+    public void testKeyedMatchesJce() throws Exception {
+        Random random = new Random(42);
+        for (int length = 1; length <= 260; length++) {
+            byte[] secret = new byte[length];
+            random.nextBytes(secret);
+            for (Hash hash : Hash.values()) {
+                KeyedHmac fast = Hmac.keyed(hash, secret);
+                KeyedHmac jce = Hmac.keyedJce(hash, secret);
+                for (long counter : new long[]{0, 1, 45187109L, -1L, random.nextLong()}) {
+                    assertEquals(hash + " key length " + length,
+                            Hex.encodeHexString(jce.digest(counter)), Hex.encodeHexString(fast.digest(counter)));
+                }
+            }
+        }
+    }
 }
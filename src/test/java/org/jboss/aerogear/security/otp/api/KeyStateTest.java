@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyStateTest {
+
+    @Test
+    public void testSameDigestsAsKey() throws Exception {
+        Random random = new Random(42);
+        for (int length = 1; length <= 260; length += 7) {
+            byte[] secret = new byte[length];
+            random.nextBytes(secret);
+            for (Hash hash : Hash.values()) {
+                KeyedHmac keyed = Hmac.keyed(hash, secret);
+                assertTrue(keyed.hasExportableState());
+                byte[] state = KeyState.encode(keyed);
+                assertEquals(KeyState.length(hash), state.length);
+                KeyedHmac restored = KeyState.decode(state);
+                assertEquals(hash, restored.getHash());
+                for (long counter : new long[]{0, 1, 45187109L, -1L, random.nextLong()}) {
+                    assertEquals(hash + " key length " + length,
+                            Hex.encodeHexString(keyed.digest(counter)), Hex.encodeHexString(restored.digest(counter)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOffset() throws Exception {
+        KeyedHmac keyed = Hmac.keyed(Hash.SHA256, "12345678901234567890123456789012".getBytes("US-ASCII"));
+        byte[] buffer = new byte[3 + KeyState.length(Hash.SHA256)];
+        assertEquals(KeyState.length(Hash.SHA256), KeyState.write(keyed, buffer, 3));
+        assertEquals(Hex.encodeHexString(keyed.digest(1)), Hex.encodeHexString(KeyState.read(buffer, 3).digest(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJceHasNoState() throws Exception {
+        KeyedHmac jce = Hmac.keyedJce(Hash.SHA1, "12345678901234567890".getBytes("US-ASCII"));
+        assertFalse(jce.hasExportableState());
+        KeyState.encode(jce);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVersion() throws Exception {
+        byte[] state = KeyState.encode(Hmac.keyed(Hash.SHA1, "12345678901234567890".getBytes("US-ASCII")));
+        state[0] = KeyState.VERSION + 1;
+        KeyState.decode(state);
+    }
+
+    @Test
+    public void testStableHashCodes() throws Exception {
+        // Stored in key states, must never change
+        assertEquals(0, Hash.SHA1.getCode());
+        assertEquals(1, Hash.SHA256.getCode());
+        assertEquals(2, Hash.SHA512.getCode());
+        for (Hash hash : Hash.values()) {
+            assertEquals(hash, Hash.fromCode(hash.getCode()));
+            byte[] state = KeyState.encode(Hmac.keyed(hash, "12345678901234567890".getBytes("US-ASCII")));
+            assertEquals(hash.getCode(), state[1]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownHash() throws Exception {
+        byte[] state = KeyState.encode(Hmac.keyed(Hash.SHA1, "12345678901234567890".getBytes("US-ASCII")));
+        state[1] = 3;
+        KeyState.decode(state);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws Exception {
+        byte[] state = KeyState.encode(Hmac.keyed(Hash.SHA512, "12345678901234567890".getBytes("US-ASCII")));
+        KeyState.decode(Arrays.copyOf(state, state.length - 1));
+    }
+}
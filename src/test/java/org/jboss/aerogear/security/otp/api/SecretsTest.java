@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.security.otp.api;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SecretsTest {
+
+    @Test
+    public void testGenerate() throws Exception {
+        Secrets secrets = Secrets.generate(5000, 10);
+        assertEquals(5000, secrets.size());
+        assertEquals(16, secrets.getEncodedLength());
+        Set<String> distinct = new HashSet<String>();
+        for (int i = 0; i < secrets.size(); i++) {
+            String encoded = secrets.getBase32(i);
+            assertEquals(Base32.encode(secrets.getSecret(i)), encoded);
+            assertArrayEquals(secrets.getSecret(i), Base32.decode(encoded));
+            distinct.add(encoded);
+        }
+        assertEquals(5000, distinct.size());
+    }
+
+    @Test
+    public void testDefaultLength() throws Exception {
+        Secrets secrets = Secrets.generate(3);
+        assertEquals(Secrets.DEFAULT_LENGTH, secrets.getSecret(2).length);
+        assertEquals(32, secrets.getBase32(2).length());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        Secrets secrets = Secrets.generate(10, 7);
+        secrets.clear();
+        assertArrayEquals(new byte[7], secrets.getSecret(9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptySecret() throws Exception {
+        Secrets.generate(10, 0);
+    }
+}